@@ -0,0 +1,113 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package benchmarks;
+
+import projectutilities.WikipediaSpecialExportProcessor;
+import projectutilities.WikiTextScanner;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.io.File;
+
+/**
+ * ExportProcessingBenchmark - the conversion of a synthetic export to the
+ * processed export, with the DOM and with the (sequential and parallel) StAX
+ * streaming, the reading of the texts back out of the processed export, and
+ * the wikitext scanner on a single page.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportProcessingBenchmark {
+    
+    @Param({"1000"})
+    public int pages;
+    
+    @Param({"4"})
+    public int sections;
+    
+    @Param({"40"})
+    public int words;
+    
+    private File directory;
+    private String export;
+    private String processed;
+    private String output;
+    private String pageText;
+    private WikipediaSpecialExportProcessor sequential;
+    private WikipediaSpecialExportProcessor parallel;
+    private WikiTextScanner scanner;
+    
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("export-benchmark").toFile();
+        export = new File(directory, "objects-export.xml").getPath();
+        processed = new File(directory, "objects.xml").getPath();
+        output = new File(directory, "output.xml").getPath();
+        SyntheticExportGenerator.generate(export, pages, sections, words, 1, 42L);
+        sequential = new WikipediaSpecialExportProcessor(1);
+        parallel = new WikipediaSpecialExportProcessor();
+        sequential.streamSpecialExport(export, processed);
+        pageText = SyntheticExportGenerator.pageText(new Random(42L), sections, words);
+        scanner = new WikiTextScanner();
+    }
+    
+    @TearDown(Level.Trial)
+    public void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+    
+    @Benchmark
+    public void convertWithDOM() {
+        sequential.convertSpecialExport(export, output);
+    }
+    
+    @Benchmark
+    public boolean streamSequential() {
+        return sequential.streamSpecialExport(export, output);
+    }
+    
+    @Benchmark
+    public boolean streamParallel() {
+        return parallel.streamSpecialExport(export, output);
+    }
+    
+    @Benchmark
+    public ArrayList<String> readProcessedTexts() {
+        return sequential.getTextsFromProcessedExport(processed, 1);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ArrayList<String> scanPageText() {
+        scanner.scan(pageText);
+        return scanner.getTexts();
+    }
+}
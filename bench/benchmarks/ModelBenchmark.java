@@ -0,0 +1,149 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package benchmarks;
+
+import projectutilities.MappedTermCountProbabilityModel;
+import projectutilities.TermCountProbabilityModel;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.io.File;
+
+/**
+ * ModelBenchmark - training, scoring and storing a TermCountProbabilityModel.
+ * 
+ * The terms are drawn from a vocabulary of word_TAG terms with a skewed (close
+ * to Zipf) distribution, like the words of real text, a class model is trained
+ * from all of them and a document model from a small sample.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModelBenchmark {
+    
+    @Param({"1000", "100000"})
+    public int vocabulary;
+    
+    @Param({"1000000"})
+    public int terms;
+    
+    @Param({"200"})
+    public int documentTerms;
+    
+    private String[] pushed;
+    private TermCountProbabilityModel model;
+    private TermCountProbabilityModel document;
+    private MappedTermCountProbabilityModel mapped;
+    private File directory;
+    private String modelFile;
+    private String outputFile;
+    
+    @Setup(Level.Trial)
+    public void train() throws IOException {
+        Random random = new Random(42L);
+        String[] words = new String[vocabulary];
+        for (int i = 0; i < vocabulary; i++) {
+            words[i] = "word" + i + (i % 2 == 0 ? "_PRP" : "_PRP$");
+        }
+        pushed = new String[terms];
+        for (int i = 0; i < terms; i++) pushed[i] = words[skewed(random)];
+        model = new TermCountProbabilityModel();
+        for (String term : pushed) model.pushTerm(term);
+        model.computeTheTermProbabilites(vocabulary);
+        document = new TermCountProbabilityModel();
+        for (int i = 0; i < documentTerms; i++) document.pushTerm(words[skewed(random)]);
+        document.computeTheTermProbabilites(vocabulary);
+        directory = Files.createTempDirectory("model-benchmark").toFile();
+        modelFile = new File(directory, "model.mdl").getPath();
+        outputFile = new File(directory, "output.mdl").getPath();
+        model.serializeTermCountProbabilityModel(modelFile);
+        mapped = new MappedTermCountProbabilityModel(modelFile);
+    }
+    
+    @TearDown(Level.Trial)
+    public void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TermCountProbabilityModel pushTerms() {
+        TermCountProbabilityModel tcpm = new TermCountProbabilityModel();
+        for (String term : pushed) tcpm.pushTerm(term);
+        return tcpm;
+    }
+    
+    @Benchmark
+    public TermCountProbabilityModel computeTheTermProbabilites() {
+        model.computeTheTermProbabilites(vocabulary);
+        return model;
+    }
+    
+    @Benchmark
+    public double getClassProbability() {
+        return model.getClassProbability(document, vocabulary);
+    }
+    
+    @Benchmark
+    public double getLogClassProbability() {
+        return model.getLogClassProbability(document, vocabulary);
+    }
+    
+    @Benchmark
+    public double getMappedLogClassProbability() {
+        return mapped.getLogClassProbability(document, vocabulary);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void serialize() {
+        model.serializeTermCountProbabilityModel(outputFile);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TermCountProbabilityModel deserialize() throws IOException {
+        return new TermCountProbabilityModel(modelFile);
+    }
+    
+    @Benchmark
+    public MappedTermCountProbabilityModel openMapped() throws IOException {
+        return new MappedTermCountProbabilityModel(modelFile);
+    }
+    
+    /**
+     * 
+     * @param random
+     * @return an index of the vocabulary, small indexes far more likely
+     */
+    private int skewed(Random random) {
+        double u = random.nextDouble();
+        return (int) (Math.pow(vocabulary + 1.0, u) - 1) % vocabulary;
+    }
+}
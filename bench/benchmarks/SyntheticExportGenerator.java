@@ -0,0 +1,156 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * SyntheticExportGenerator - writes made up Special:Export files, so that the
+ * benchmarks run offline on inputs of any size.
+ * 
+ * The pages look like the pages of a real export to the processor, templates
+ * (nested ones too), bold text, links with and without labels, file links with
+ * links inside their captions, references, sections, sub sections and the
+ * categories at the end, and a few of the stray brackets real pages have. The
+ * words are drawn from a small vocabulary that has pronouns in it, and the same
+ * seed always writes the same export.
+ * 
+ *      java benchmarks.SyntheticExportGenerator file pages [sections words
+ *              revisions seed]
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class SyntheticExportGenerator {
+    
+    private static final String[] WORDS = {
+        "the", "a", "she", "he", "his", "her", "it", "they", "them", "their",
+        "alpha", "beta", "gamma", "delta", "river", "city", "written", "born",
+        "café", "naïve", "1984", "über", "and", "of", "in", "was"
+    };
+    
+    /**
+     * @param args file pages [sections words revisions seed]
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: SyntheticExportGenerator file pages"
+                    + " [sections words revisions seed]");
+            System.exit(1);
+        }
+        int pages = Integer.parseInt(args[1]);
+        int sections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int words = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+        int revisions = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42L;
+        generate(args[0], pages, sections, words, revisions, seed);
+    }
+    
+    /**
+     * Writes a Special:Export file.
+     * 
+     * @param filename
+     * @param pages the number of pages
+     * @param sections the most sections of a page
+     * @param words the most words of a paragraph
+     * @param revisions the most revisions of a page
+     * @param seed
+     * @throws IOException
+     */
+    public static void generate(String filename, int pages, int sections, int words,
+            int revisions, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.10/\""
+                    + " version=\"0.10\" xml:lang=\"en\">\n");
+            out.write("  <siteinfo><sitename>Wikipedia</sitename></siteinfo>\n");
+            for (int page = 0; page < pages; page++) {
+                out.write("  <page>\n    <title>Synthetic Page " + page + "</title>\n");
+                out.write("    <ns>0</ns>\n    <id>" + page + "</id>\n");
+                int count = 1 + random.nextInt(Math.max(revisions, 1));
+                for (int revision = 0; revision < count; revision++) {
+                    out.write("    <revision><id>" + (page * 10 + revision) + "</id>");
+                    out.write("<timestamp>2016-0" + (1 + revision % 9)
+                            + "-01T00:00:00Z</timestamp>\n");
+                    out.write("      <text xml:space=\"preserve\">");
+                    out.write(escape(pageText(random, sections, words)));
+                    out.write("</text>\n    </revision>\n");
+                }
+                out.write("  </page>\n");
+            }
+            out.write("</mediawiki>\n");
+        }
+    }
+    
+    /**
+     * 
+     * @param random
+     * @param sections the most sections of the page, it has at least one
+     * @param words the most words of a paragraph
+     * @return the wikitext of a made up page
+     */
+    public static String pageText(Random random, int sections, int words) {
+        StringBuilder text = new StringBuilder();
+        text.append("{{Infobox person | name = X {{nested|y}} }}\n'''Bold''' ");
+        text.append(paragraph(random, words));
+        text.append(" [[Link One]] and [[Target|label]] &amp; more <ref>x</ref>");
+        int count = sections > 0 ? 1 + random.nextInt(sections) : 0;
+        for (int section = 0; section < count; section++) {
+            text.append("\n== Section ").append(section).append(" ==\n");
+            text.append(paragraph(random, words));
+            text.append(" [[File:x.jpg|thumb|cap [[inner]] tail]] ");
+            text.append(paragraph(random, words));
+            if (random.nextInt(10) < 3) {
+                text.append("\n=== Sub ===\n").append(paragraph(random, words));
+                text.append(" }} stray ");
+            }
+        }
+        text.append("\n[[Category:People ").append(random.nextInt(10)).append("]]");
+        text.append("\n[[Category:Test]]");
+        return text.toString();
+    }
+    
+    /**
+     * 
+     * @param random
+     * @param words the most words of the paragraph
+     * @return a paragraph of words drawn from the vocabulary
+     */
+    public static String paragraph(Random random, int words) {
+        StringBuilder paragraph = new StringBuilder();
+        int count = 5 + random.nextInt(Math.max(words - 4, 1));
+        for (int word = 0; word < count; word++) {
+            if (word > 0) paragraph.append(' ');
+            paragraph.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return paragraph.toString();
+    }
+    
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package benchmarks;
+
+import projectutilities.StanfordSpeechTaggerAndCounter;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+import java.util.Random;
+import java.io.File;
+
+/**
+ * TaggingBenchmark - tagNormalizedString on synthetic paragraphs. The tagger
+ * model is not shipped with the project, the benchmark needs the model file
+ * (stanford-postagger/english-left3words-distsim.tagger by default, or the
+ * tagger.model system property) and loads it once, before measuring.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TaggingBenchmark {
+    
+    private static final int PARAGRAPHS = 256;
+    
+    @Param({"40"})
+    public int words;
+    
+    private StanfordSpeechTaggerAndCounter tagger;
+    private String[] paragraphs;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void load() {
+        String model = System.getProperty("tagger.model");
+        if (model != null) StanfordSpeechTaggerAndCounter.setModelFile(model);
+        if (!new File(StanfordSpeechTaggerAndCounter.getModelFile()).isFile()) {
+            throw new IllegalStateException("Tagger Model Not Found: "
+                    + StanfordSpeechTaggerAndCounter.getModelFile());
+        }
+        tagger = new StanfordSpeechTaggerAndCounter();
+        tagger.preload();
+        Random random = new Random(42L);
+        paragraphs = new String[PARAGRAPHS];
+        for (int i = 0; i < PARAGRAPHS; i++) {
+            paragraphs[i] = SyntheticExportGenerator.paragraph(random, words);
+        }
+    }
+    
+    @TearDown(Level.Iteration)
+    public void reset() {
+        tagger.resetWordCount();
+    }
+    
+    @Benchmark
+    public String tagNormalizedString() {
+        next = (next + 1) % PARAGRAPHS;
+        return tagger.tagNormalizedString(paragraphs[next]);
+    }
+}
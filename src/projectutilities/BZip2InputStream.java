@@ -0,0 +1,388 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * BZip2InputStream - decompresses a bzip2 file while it is read.
+ * 
+ * The file may be several bzip2 streams one after another, as the multistream
+ * Wikipedia dumps are, the streams are decompressed in turn as one. A block is
+ * decoded whole (the Huffman coded symbols, the move-to-front and the run
+ * lengths of the zeros) into a vector of the size of the block, which is then
+ * turned back by the inverse Burrows-Wheeler transform while it is read, and
+ * the runs of the first run length encoding are expanded on the way out. The
+ * CRC of every block and of every stream is checked.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class BZip2InputStream extends InputStream {
+    
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final int MAX_GROUPS = 6;
+    private static final int MAX_SELECTORS = 18002;
+    private static final int MAX_CODE_LENGTH = 20;
+    private static final int GROUP_SIZE = 50;
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int[] CRC_TABLE = new int[256];
+    
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+    
+    private final InputStream in;
+    private long bits;              // the bits read ahead, the next ones highest
+    private int bitCount;
+    private boolean eof;
+    // the stream
+    private int blockSizeMax;
+    private int streamCrc;
+    private int[] tt;
+    // the block being read out
+    private int blockLength;
+    private int blockCrc;
+    private int crc;
+    private int position;           // in the inverse Burrows-Wheeler transform
+    private int emitted;
+    private int last = -1;          // the last byte, for the run length decoding
+    private int same;               // times the last byte was repeated
+    private int repeat;             // copies of the last byte still to give out
+    // the decoding tables, reused from block to block
+    private final int[] unzftab = new int[256];
+    private final byte[] selectors = new byte[MAX_SELECTORS];
+    private final int[][] limit = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private final int[][] base = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private final int[][] perm = new int[MAX_GROUPS][258];
+    private final int[] minLengths = new int[MAX_GROUPS];
+    
+    /**
+     * 
+     * @param in the compressed stream, buffered when it is not in memory or
+     *      buffered already
+     * @throws IOException when it does not start with a bzip2 stream
+     */
+    public BZip2InputStream(InputStream in) throws IOException {
+        this.in = in instanceof BufferedInputStream || in instanceof ByteArrayInputStream
+                ? in : new BufferedInputStream(in, 1 << 16);
+        if (!readStreamHeader()) throw new IOException("Not A BZip2 Stream");
+    }
+    
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        int n = 0;
+        while (n < length) {
+            if (repeat > 0) {
+                int copies = Math.min(repeat, length - n);
+                for (int i = 0; i < copies; i++) buffer[offset + n++] = (byte) last;
+                updateCrc(last, copies);
+                repeat -= copies;
+                continue;
+            }
+            if (emitted == blockLength) {
+                if (n > 0) break;   // hand out what there is before the next block
+                if (!nextBlock()) return -1;
+                continue;
+            }
+            // the next byte of the inverse Burrows-Wheeler transform
+            position = tt[position];
+            int b = position & 0xff;
+            position >>>= 8;
+            emitted++;
+            if (same == 4) {
+                // the byte after four equal bytes is the count of more of them
+                repeat = b;
+                same = 0;
+                continue;
+            }
+            same = b == last ? same + 1 : 1;
+            last = b;
+            buffer[offset + n++] = (byte) b;
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xff];
+        }
+        return n;
+    }
+    
+    @Override
+    public void close() throws IOException { in.close(); }
+    
+    /**
+     * Finishes the block read out and decodes the next one, going on to the
+     * next stream at the end of a stream.
+     * 
+     * @return false at the end of the last stream
+     */
+    private boolean nextBlock() throws IOException {
+        if (eof) return false;
+        if (tt != null && blockLength > 0) {
+            if (~crc != blockCrc) throw new IOException("BZip2 Block CRC Error");
+            streamCrc = ((streamCrc << 1) | (streamCrc >>> 31)) ^ blockCrc;
+        }
+        blockLength = 0;
+        emitted = 0;
+        last = -1;
+        same = 0;
+        while (true) {
+            long magic = readBits(48);
+            if (magic == BLOCK_MAGIC) {
+                decodeBlock();
+                return true;
+            }
+            if (magic != END_MAGIC) throw new IOException("BZip2 Stream Corrupt");
+            if ((int) readBits(32) != streamCrc) throw new IOException("BZip2 Stream CRC Error");
+            // the stream is padded to a whole byte, another stream may follow
+            bitCount -= bitCount % 8;
+            if (!readStreamHeader()) {
+                eof = true;
+                return false;
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @return false when there is no other stream
+     */
+    private boolean readStreamHeader() throws IOException {
+        int b = readByteOrEnd();
+        if (b < 0) return false;
+        if (b != 'B' || readBits(8) != 'Z' || readBits(8) != 'h') {
+            throw new IOException("Not A BZip2 Stream");
+        }
+        int level = (int) readBits(8) - '0';
+        if (level < 1 || level > 9) throw new IOException("Not A BZip2 Stream");
+        if (tt == null || tt.length < level * 100000) tt = new int[level * 100000];
+        blockSizeMax = level * 100000;
+        streamCrc = 0;
+        return true;
+    }
+    
+    /**
+     * Decodes the block into the vector of the inverse Burrows-Wheeler transform.
+     */
+    private void decodeBlock() throws IOException {
+        blockCrc = (int) readBits(32);
+        crc = -1;
+        if (readBits(1) != 0) throw new IOException("Randomized BZip2 Blocks Are Not Supported");
+        int origin = (int) readBits(24);
+        // the bytes used in the block
+        int[] seqToUnseq = new int[256];
+        int inUse = 0;
+        int used = (int) readBits(16);
+        for (int i = 0; i < 16; i++) {
+            if ((used & (0x8000 >>> i)) == 0) continue;
+            int bytes = (int) readBits(16);
+            for (int j = 0; j < 16; j++) {
+                if ((bytes & (0x8000 >>> j)) != 0) seqToUnseq[inUse++] = i * 16 + j;
+            }
+        }
+        if (inUse == 0) throw new IOException("BZip2 Block Corrupt");
+        int alphaSize = inUse + 2;
+        int groups = (int) readBits(3);
+        int selectorCount = (int) readBits(15);
+        if (groups < 2 || groups > MAX_GROUPS || selectorCount < 1) {
+            throw new IOException("BZip2 Block Corrupt");
+        }
+        // the selectors, move-to-front coded in unary
+        byte[] groupOrder = {0, 1, 2, 3, 4, 5};
+        for (int i = 0; i < selectorCount; i++) {
+            int j = 0;
+            while (readBits(1) == 1) {
+                if (++j >= groups) throw new IOException("BZip2 Block Corrupt");
+            }
+            byte group = groupOrder[j];
+            System.arraycopy(groupOrder, 0, groupOrder, 1, j);
+            groupOrder[0] = group;
+            if (i < MAX_SELECTORS) selectors[i] = group;
+        }
+        selectorCount = Math.min(selectorCount, MAX_SELECTORS);
+        // the code lengths of every group, delta coded
+        int[] lengths = new int[alphaSize];
+        for (int g = 0; g < groups; g++) {
+            int length = (int) readBits(5);
+            for (int symbol = 0; symbol < alphaSize; symbol++) {
+                while (true) {
+                    if (length < 1 || length > MAX_CODE_LENGTH) {
+                        throw new IOException("BZip2 Block Corrupt");
+                    }
+                    if (readBits(1) == 0) break;
+                    length += readBits(1) == 0 ? 1 : -1;
+                }
+                lengths[symbol] = length;
+            }
+            createDecodeTables(g, lengths, alphaSize);
+        }
+        // the symbols, move-to-front coded with the runs of the front byte in
+        // RUNA and RUNB, in groups of GROUP_SIZE coded by the selected table
+        int[] mtf = new int[256];
+        for (int i = 0; i < 256; i++) mtf[i] = i;
+        Arrays.fill(unzftab, 0);
+        int endOfBlock = inUse + 1;
+        int length = 0, run = 0, runBit = 1;
+        int selector = 0, left = 0, group = 0;
+        while (true) {
+            if (left == 0) {
+                if (selector >= selectorCount) throw new IOException("BZip2 Block Corrupt");
+                group = selectors[selector++];
+                left = GROUP_SIZE;
+            }
+            left--;
+            int symbol = decodeSymbol(group);
+            if (symbol == RUNA || symbol == RUNB) {
+                run += (symbol == RUNA ? 1 : 2) * runBit;
+                runBit <<= 1;
+                if (run > blockSizeMax) throw new IOException("BZip2 Block Corrupt");
+                continue;
+            }
+            if (run > 0) {
+                if (length + run > blockSizeMax) throw new IOException("BZip2 Block Corrupt");
+                int b = seqToUnseq[mtf[0]];
+                unzftab[b] += run;
+                while (run-- > 0) tt[length++] = b;
+                run = 0;
+                runBit = 1;
+            }
+            if (symbol == endOfBlock) break;
+            if (length >= blockSizeMax) throw new IOException("BZip2 Block Corrupt");
+            int index = symbol - 1;
+            int front = mtf[index];
+            System.arraycopy(mtf, 0, mtf, 1, index);
+            mtf[0] = front;
+            int b = seqToUnseq[front];
+            unzftab[b]++;
+            tt[length++] = b;
+        }
+        if (origin >= length) throw new IOException("BZip2 Block Corrupt");
+        // the inverse Burrows-Wheeler transform, every entry of tt keeps its
+        // byte in the low bits and the index of the next entry above them
+        int[] cftab = new int[256];
+        for (int i = 0, sum = 0; i < 256; i++) {
+            cftab[i] = sum;
+            sum += unzftab[i];
+        }
+        for (int i = 0; i < length; i++) {
+            int b = tt[i] & 0xff;
+            tt[cftab[b]++] |= i << 8;
+        }
+        position = tt[origin] >>> 8;
+        blockLength = length;
+    }
+    
+    /**
+     * The canonical Huffman decoding tables of a group, by code length the
+     * highest code (limit), the offset of the codes into the symbols (base),
+     * and the symbols in code order (perm).
+     */
+    private void createDecodeTables(int group, int[] lengths, int alphaSize) {
+        int min = MAX_CODE_LENGTH, max = 0;
+        for (int i = 0; i < alphaSize; i++) {
+            min = Math.min(min, lengths[i]);
+            max = Math.max(max, lengths[i]);
+        }
+        int[] groupLimit = limit[group], groupBase = base[group], groupPerm = perm[group];
+        int p = 0;
+        for (int length = min; length <= max; length++) {
+            for (int symbol = 0; symbol < alphaSize; symbol++) {
+                if (lengths[symbol] == length) groupPerm[p++] = symbol;
+            }
+        }
+        Arrays.fill(groupBase, 0);
+        Arrays.fill(groupLimit, 0);
+        for (int i = 0; i < alphaSize; i++) groupBase[lengths[i] + 1]++;
+        for (int i = 1; i < groupBase.length; i++) groupBase[i] += groupBase[i - 1];
+        int code = 0;
+        for (int length = min; length <= max; length++) {
+            code += groupBase[length + 1] - groupBase[length];
+            groupLimit[length] = code - 1;
+            code <<= 1;
+        }
+        for (int length = min + 1; length <= max; length++) {
+            groupBase[length] = ((groupLimit[length - 1] + 1) << 1) - groupBase[length];
+        }
+        for (int length = max + 1; length < groupLimit.length; length++) {
+            groupLimit[length] = Integer.MAX_VALUE;    // no code is that long
+        }
+        minLengths[group] = min;
+    }
+    
+    private int decodeSymbol(int group) throws IOException {
+        int[] groupLimit = limit[group];
+        int length = minLengths[group];
+        int code = (int) readBits(length);
+        while (code > groupLimit[length]) {
+            if (++length > MAX_CODE_LENGTH) throw new IOException("BZip2 Block Corrupt");
+            code = (code << 1) | (int) readBits(1);
+        }
+        int index = code - base[group][length];
+        if (index < 0 || index >= perm[group].length) throw new IOException("BZip2 Block Corrupt");
+        return perm[group][index];
+    }
+    
+    private void updateCrc(int b, int copies) {
+        for (int i = 0; i < copies; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xff];
+        }
+    }
+    
+    /**
+     * 
+     * @param n at most 48
+     * @return the next n bits, the first one highest
+     */
+    private long readBits(int n) throws IOException {
+        while (bitCount < n) {
+            int b = in.read();
+            if (b < 0) throw new IOException("BZip2 Stream Truncated");
+            bits = (bits << 8) | b;
+            bitCount += 8;
+        }
+        bitCount -= n;
+        return (bits >>> bitCount) & ((1L << n) - 1);
+    }
+    
+    /**
+     * 
+     * @return the next byte of a stream starting on a whole byte, or -1 at the
+     *      end of the input
+     */
+    private int readByteOrEnd() throws IOException {
+        if (bitCount >= 8) return (int) readBits(8);
+        return in.read();
+    }
+}
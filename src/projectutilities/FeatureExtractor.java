@@ -0,0 +1,297 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import projectutilities.TaggedTokenReader.TokenHandler;
+import projectutilities.TaggedTokenReader.TagFilter;
+import edu.stanford.nlp.process.Morphology;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.io.File;
+
+/**
+ * FeatureExtractor - turns the tokens of a tagged text into the terms of the
+ * models.
+ * 
+ * A token is only used when its tag passes the tag filter, and it becomes a unit
+ * of its word and tag, its word, its tag, or its lemma (from the Stanford
+ * Morphology) with or without the tag. The n-grams of the units of a text, of
+ * every order from 1 to n, are the features, and when hashing is on the features
+ * are hashed into 2^hash buckets, which bounds the size of the models no matter
+ * how many distinct n-grams the texts have. The tokens are handed over as ranges
+ * of the char array of the TaggedTokenReader, hashed features are hashed from
+ * those ranges, so no token array or token String is built for them.
+ * 
+ * An extractor is described by a spec, which is also how it is written next to
+ * the models, so that a classifier extracts the features the models were
+ * trained on:
+ * 
+ *      tags=PRP,PRP$;unit=word_tag;n=1;hash=0
+ * 
+ * tags=* takes every tagged token. The spec above is the PRONOUNS extractor,
+ * the features of the original models.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class FeatureExtractor {
+    
+    /**
+     * What a token is turned into.
+     */
+    public enum Unit { WORD_TAG, WORD, TAG, LEMMA, LEMMA_TAG }
+    
+    /**
+     * The proper and possessive pronouns as whole word_TAG tokens.
+     */
+    public static final FeatureExtractor PRONOUNS
+            = new FeatureExtractor("PRP,PRP$", Unit.WORD_TAG, 1, 0);
+    
+    private static final int MAX_HASH_BITS = 30;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final ThreadLocal<Morphology> MORPHOLOGY
+            = ThreadLocal.withInitial(Morphology::new);
+    
+    private final String tags;
+    private final TagFilter filter;
+    private final Unit unit;
+    private final int n;
+    private final int hashBits;
+    
+    /**
+     * 
+     * @param tags the accepted tags separated by commas, or * for every tag
+     * @param unit
+     * @param n the highest order of the n-grams, at least 1
+     * @param hashBits the features are hashed into 2^hashBits buckets, 0 for no
+     *      hashing
+     */
+    public FeatureExtractor(String tags, Unit unit, int n, int hashBits) {
+        if (n < 1 || hashBits < 0 || hashBits > MAX_HASH_BITS) {
+            throw new IllegalArgumentException("Invalid Features: n=" + n
+                    + " hash=" + hashBits);
+        }
+        this.tags = tags;
+        this.filter = tags.equals("*")
+                ? (chars, tagStart, tagEnd) -> true
+                : TagFilter.of(tags.split(","));
+        this.unit = unit;
+        this.n = n;
+        this.hashBits = hashBits;
+    }
+    
+    /**
+     * 
+     * @param spec as returned by toString, missing settings keep the settings
+     *      of PRONOUNS
+     * @return the extractor of the spec
+     */
+    public static FeatureExtractor parse(String spec) {
+        String tags = PRONOUNS.tags;
+        Unit unit = PRONOUNS.unit;
+        int n = PRONOUNS.n;
+        int hashBits = PRONOUNS.hashBits;
+        for (String setting : spec.trim().split(";")) {
+            if (setting.isEmpty()) continue;
+            int equals = setting.indexOf('=');
+            String key = equals < 0 ? setting : setting.substring(0, equals).trim();
+            String value = equals < 0 ? "" : setting.substring(equals + 1).trim();
+            switch (key) {
+                case "tags": tags = value; break;
+                case "unit": unit = Unit.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                case "n": n = Integer.parseInt(value); break;
+                case "hash": hashBits = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown Feature Setting: " + key);
+            }
+        }
+        return new FeatureExtractor(tags, unit, n, hashBits);
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @return the extractor written to the file, PRONOUNS when there is no file
+     * @throws IOException
+     */
+    public static FeatureExtractor read(String filename) throws IOException {
+        if (!new File(filename).isFile()) return PRONOUNS;
+        return parse(new String(Files.readAllBytes(Paths.get(filename)),
+                StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @throws IOException
+     */
+    public void write(String filename) throws IOException {
+        Files.write(Paths.get(filename),
+                (toString() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 
+     * @return the most features the extractor can produce, 0 when unbounded
+     */
+    public int getFeatureSpaceSize() { return hashBits == 0 ? 0 : 1 << hashBits; }
+    
+    /**
+     * Extracts the features of a tagged text.
+     * 
+     * @param tagged the tagged text, as returned by the tagger
+     * @param sink receives the features in text order
+     * @return the number of features
+     */
+    public int extract(String tagged, Consumer<String> sink) {
+        Extraction extraction = new Extraction(sink);
+        TaggedTokenReader.scan(tagged, extraction);
+        return extraction.features;
+    }
+    
+    /**
+     * The extraction of a tagged text read through a TaggedTokenReader, every
+     * text needs a handler of its own, as the n-grams do not cross texts.
+     * 
+     * @param sink receives the features in text order
+     * @return the handler to read the text with
+     */
+    public TokenHandler handler(Consumer<String> sink) {
+        return new Extraction(sink);
+    }
+    
+    @Override
+    public String toString() {
+        return "tags=" + tags + ";unit=" + unit.name().toLowerCase(Locale.ROOT)
+                + ";n=" + n + ";hash=" + hashBits;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FeatureExtractor && other.toString().equals(toString());
+    }
+    
+    @Override
+    public int hashCode() { return toString().hashCode(); }
+    
+    /**
+     * The state of the extraction of one text, the last n units in a ring.
+     */
+    private final class Extraction implements TokenHandler {
+    
+        private final Consumer<String> sink;
+        private final String[] units;   // when not hashed
+        private final long[] hashes;    // when hashed
+        private int seen;
+        private int features;
+    
+        private Extraction(Consumer<String> sink) {
+            this.sink = sink;
+            this.units = hashBits == 0 ? new String[n] : null;
+            this.hashes = hashBits == 0 ? null : new long[n];
+        }
+    
+        @Override
+        public void token(char[] chars, int start, int separator, int end) {
+            if (separator < 0 || !filter.accept(chars, separator + 1, end)) return;
+            int slot = seen++ % n;
+            if (hashes != null) {
+                hashes[slot] = unitHash(chars, start, separator, end);
+            } else {
+                units[slot] = unitString(chars, start, separator, end);
+            }
+            for (int order = 1; order <= n && order <= seen; order++) {
+                sink.accept(hashes != null ? hashedGram(order) : gram(order));
+                features++;
+            }
+        }
+    
+        /**
+         * 
+         * @param order
+         * @return the units of the n-gram ending at the last unit, by spaces
+         */
+        private String gram(int order) {
+            if (order == 1) return units[(seen - 1) % n];
+            StringBuilder gram = new StringBuilder();
+            for (int k = order - 1; k >= 0; k--) {
+                if (gram.length() > 0) gram.append(' ');
+                gram.append(units[(seen - 1 - k) % n]);
+            }
+            return gram.toString();
+        }
+    
+        /**
+         * 
+         * @param order
+         * @return the bucket of the n-gram ending at the last unit
+         */
+        private String hashedGram(int order) {
+            long hash = order;
+            for (int k = order - 1; k >= 0; k--) {
+                hash = mix(hash * 0x9E3779B97F4A7C15L + hashes[(seen - 1 - k) % n]);
+            }
+            return "#" + Long.toHexString(hash >>> (64 - hashBits));
+        }
+    }
+    
+    private String unitString(char[] chars, int start, int separator, int end) {
+        switch (unit) {
+            case WORD: return new String(chars, start, separator - start);
+            case TAG: return new String(chars, separator + 1, end - separator - 1);
+            case LEMMA: return lemma(chars, start, separator, end);
+            case LEMMA_TAG: return lemma(chars, start, separator, end)
+                    + new String(chars, separator, end - separator);
+            default: return new String(chars, start, end - start);
+        }
+    }
+    
+    private long unitHash(char[] chars, int start, int separator, int end) {
+        switch (unit) {
+            case WORD: return fnv(chars, start, separator, FNV_OFFSET);
+            case TAG: return fnv(chars, separator + 1, end, FNV_OFFSET);
+            case LEMMA:
+            case LEMMA_TAG:
+                String lemma = unitString(chars, start, separator, end);
+                return fnv(lemma.toCharArray(), 0, lemma.length(), FNV_OFFSET);
+            default: return fnv(chars, start, end, FNV_OFFSET);
+        }
+    }
+    
+    private static String lemma(char[] chars, int start, int separator, int end) {
+        return MORPHOLOGY.get().lemma(new String(chars, start, separator - start),
+                new String(chars, separator + 1, end - separator - 1));
+    }
+    
+    private static long fnv(char[] chars, int start, int end, long hash) {
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ chars[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb93fe53a1ce3L;
+        return hash ^ (hash >>> 33);
+    }
+}
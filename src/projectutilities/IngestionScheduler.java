@@ -0,0 +1,179 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * IngestionScheduler - runs the jobs of many input files in parallel, as many
+ * at once as the threads and the memory budget allow.
+ * 
+ * Every job is given the size of its file and an estimate of the memory it
+ * takes. The jobs are started largest file first, so the long jobs do not end
+ * up running alone at the end, and a job is only started once the memory it
+ * takes is left in the budget, when the largest waiting job does not fit the
+ * next one that does is started in its place. A job taking more than the whole
+ * budget is run once no other job is running.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class IngestionScheduler {
+    
+    /**
+     * The work done for one file.
+     */
+    public interface Job {
+        void run() throws IOException;
+    }
+    
+    private static final class Entry {
+        private final String name;
+        private final long bytes;
+        private final long memory;
+        private final Job job;
+    
+        private Entry(String name, long bytes, long memory, Job job) {
+            this.name = name;
+            this.bytes = bytes;
+            this.memory = memory;
+            this.job = job;
+        }
+    }
+    
+    private final List<Entry> ENTRIES = new ArrayList<>();
+    private final int threads;
+    private final long budget;
+    private long available;
+    private volatile int running;
+    
+    /**
+     * 
+     * @param threads the most jobs running at once
+     * @param memoryBudget the memory the running jobs may take together
+     */
+    public IngestionScheduler(int threads, long memoryBudget) {
+        this.threads = Math.max(threads, 1);
+        this.budget = Math.max(memoryBudget, 1);
+    }
+    
+    /**
+     * 
+     * @param fraction
+     * @return the fraction of the most memory the heap can grow to
+     */
+    public static long getHeapBudget(double fraction) {
+        return (long) (Runtime.getRuntime().maxMemory() * fraction);
+    }
+    
+    /**
+     * 
+     * @param name the name of the file, for the error messages
+     * @param bytes the size of the file
+     * @param memory the estimated memory the job takes
+     * @param job
+     */
+    public void add(String name, long bytes, long memory, Job job) {
+        ENTRIES.add(new Entry(name, bytes, Math.min(Math.max(memory, 0), budget), job));
+    }
+    
+    /**
+     * 
+     * @return the number of jobs added and not yet run
+     */
+    public int size() { return ENTRIES.size(); }
+    
+    /**
+     * Runs the jobs added so far and waits for all of them to finish, a job that
+     * fails does not stop the others.
+     * 
+     * @return true when every job finished without an error
+     */
+    public boolean run() {
+        List<Entry> waiting = new ArrayList<>(ENTRIES);
+        ENTRIES.clear();
+        waiting.sort(Comparator.comparingLong((Entry entry) -> entry.bytes).reversed());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads,
+                Math.max(waiting.size(), 1)));
+        AtomicBoolean failed = new AtomicBoolean();
+        PipelineMetrics.addGauge("ingestion_jobs", () -> running);
+        try {
+            synchronized (this) {
+                available = budget;
+                while (!waiting.isEmpty()) {
+                    Entry next = null;
+                    if (running < threads) {
+                        for (Entry entry : waiting) {
+                            if (entry.memory <= available) {
+                                next = entry;
+                                break;
+                            }
+                        }
+                    }
+                    if (next == null) {
+                        wait();
+                        continue;
+                    }
+                    waiting.remove(next);
+                    start(pool, next, failed);
+                }
+                while (running > 0) wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.err.println("ERR @ IngestionScheduler: interrupted");
+            pool.shutdownNow();
+            return false;
+        } finally {
+            PipelineMetrics.removeGauge("ingestion_jobs");
+        }
+        pool.shutdown();
+        return !failed.get();
+    }
+    
+    /**
+     * Reserves the memory of the job and submits it, the memory is given back
+     * when the job is done. Called holding the lock of the scheduler.
+     */
+    private void start(ExecutorService pool, Entry entry, AtomicBoolean failed) {
+        available -= entry.memory;
+        running++;
+        pool.execute(() -> {
+            try {
+                entry.job.run();
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("ERR @ IngestionScheduler: " + entry.name + ": "
+                        + ex.getMessage());
+                failed.set(true);
+            } finally {
+                synchronized (this) {
+                    available += entry.memory;
+                    running--;
+                    notifyAll();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,122 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.channels.FileChannel;
+import java.nio.MappedByteBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * MappedFile - a read only memory mapping of a whole file of any size.
+ * 
+ * A single MappedByteBuffer holds at most 2 GB, so the file is mapped in chunks
+ * and read at long positions. Every chunk is mapped with the first bytes of the
+ * next one, so a value of up to eight bytes is always read from one chunk.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class MappedFile {
+    
+    static final int CHUNK_SIZE = 1 << 30;
+    private static final int OVERLAP = 8;
+    
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+    private final int shift;
+    private final long mask;
+    
+    /**
+     * Maps the whole file, the channel can be closed once it is mapped.
+     * 
+     * @param channel
+     * @throws IOException
+     */
+    MappedFile(FileChannel channel) throws IOException {
+        this(channel, CHUNK_SIZE);
+    }
+    
+    /**
+     * 
+     * @param channel
+     * @param chunkSize a power of two of at most CHUNK_SIZE
+     * @throws IOException
+     */
+    MappedFile(FileChannel channel, int chunkSize) throws IOException {
+        if (Integer.bitCount(chunkSize) != 1 || chunkSize > CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunk size " + chunkSize);
+        }
+        length = channel.size();
+        shift = Integer.numberOfTrailingZeros(chunkSize);
+        mask = chunkSize - 1;
+        chunks = new MappedByteBuffer[(int) ((length + mask) >>> shift)];
+        for (int i = 0; i < chunks.length; i++) {
+            long position = (long) i << shift;
+            long size = Math.min(chunkSize + OVERLAP, length - position);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+    
+    /**
+     * 
+     * @return the length of the file in bytes
+     */
+    long length() { return length; }
+    
+    byte get(long position) {
+        return chunk(position).get((int) (position & mask));
+    }
+    
+    int getInt(long position) {
+        return chunk(position).getInt((int) (position & mask));
+    }
+    
+    long getLong(long position) {
+        return chunk(position).getLong((int) (position & mask));
+    }
+    
+    double getDouble(long position) {
+        return chunk(position).getDouble((int) (position & mask));
+    }
+    
+    /**
+     * Reads the bytes at the position into the array, across chunks.
+     * 
+     * @param position
+     * @param bytes
+     */
+    void get(long position, byte[] bytes) {
+        int done = 0;
+        while (done < bytes.length) {
+            ByteBuffer view = chunk(position + done).duplicate();
+            view.position((int) ((position + done) & mask));
+            int length = Math.min(bytes.length - done, view.remaining());
+            view.get(bytes, done, length);
+            done += length;
+        }
+    }
+    
+    private ByteBuffer chunk(long position) {
+        if (position < 0 || position >= length) {
+            throw new IndexOutOfBoundsException("position " + position);
+        }
+        return chunks[(int) (position >>> shift)];
+    }
+}
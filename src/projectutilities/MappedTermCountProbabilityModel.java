@@ -0,0 +1,246 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * MappedTermCountProbabilityModel - a read only TermCountProbabilityModel that
+ * is used directly from a memory mapped binary model file.
+ * 
+ * Opening the model only maps the file, nothing is decoded up front, the terms
+ * are found by a binary search over the sorted dictionary of the file. The pages
+ * of the file are shared by every process that maps the same model, and a file
+of any size is mapped (in chunks of at most 1 GB).
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class MappedTermCountProbabilityModel {
+    
+    private final MappedFile file;
+    private final long totalTermCount;
+    private final int size;
+    private final int vocab;            // 0 when the file does not keep it
+    private final boolean longCounts;   // false in the files of the first version
+    // section offsets, see TermModelFormat
+    private final long probs;
+    private final long logProbs;
+    private final long counts;
+    private final long offsets;
+    private final long dictionary;
+    
+    /**
+     * Maps the binary model file written by serializeTermCountProbabilityModel.
+     * 
+     * @param modelFileName
+     * @throws IOException when the file can not be mapped or is not a model
+     */
+    public MappedTermCountProbabilityModel(String modelFileName) throws IOException {
+        file = TermModelFormat.map(modelFileName);
+        longCounts = file.getInt(4) == TermModelFormat.VERSION;
+        if (longCounts) {
+            totalTermCount = file.getLong(8);
+            size = file.getInt(16);
+            vocab = Math.max(file.getInt(20), 0);
+            probs = TermModelFormat.HEADER;
+        } else {
+            totalTermCount = file.getInt(8);
+            size = file.getInt(12);
+            vocab = 0;
+            probs = TermModelFormat.HEADER_1;
+        }
+        if (size < 0) throw new IOException("Invalid Model File: " + modelFileName);
+        // the sections of a non negative int number of terms are far below the
+        // range of a long, so none of the offsets overflow
+        logProbs = probs + 8L * size;
+        counts = logProbs + 8L * size;
+        offsets = counts + (longCounts ? 8L : 4L) * size;
+        dictionary = offsets + 4L * (size + 1L);
+        if (dictionary > file.length()) {
+            throw new IOException("Truncated Model File: " + modelFileName);
+        }
+        int first = file.getInt(offsets);
+        int end = file.getInt(offsets + 4L * size);
+        if (first != 0 || end < 0) {
+            throw new IOException("Invalid Model File: " + modelFileName);
+        }
+        if (dictionary + end > file.length()) {
+            throw new IOException("Truncated Model File: " + modelFileName);
+        }
+    }
+    
+    /**
+     * 
+     * @param term
+     * @return the count of the term, zero if it is not present, at most
+     *      Integer.MAX_VALUE
+     */
+    public int getTermCount(String term) {
+        return (int) Math.min(getTermCountLong(term), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * 
+     * @param term
+     * @return the count of the term, zero if it is not present
+     */
+    public long getTermCountLong(String term) {
+        int index = indexOf(term);
+        if (index < 0) return 0;
+        return longCounts ? file.getLong(counts + 8L * index)
+                : file.getInt(counts + 4L * index);
+    }
+    
+    /**
+     * 
+     * @param term
+     * @return the probability of the term, zero if it is not present
+     */
+    public double getTermProbability(String term) {
+        int index = indexOf(term);
+        return index >= 0 ? file.getDouble(probs + 8L * index) : 0;
+    }
+    
+    /**
+     * Decodes every term of the model, which is the one expensive operation.
+     * 
+     * @return all terms in this model
+     */
+    public Set<String> getVocabulary() {
+        HashSet<String> vocabulary = new HashSet<>(size * 2);
+        for (int index = 0; index < size; index++) {
+            vocabulary.add(term(index));
+        }
+        return vocabulary;
+    }
+    
+    /**
+     * 
+     * @return the number of distinct terms in the model
+     */
+    public int getModelSize() { return size; }
+    
+    /**
+     * The vocab the probabilities of the model were computed with when it was
+     * trained, the number of distinct terms over all the models trained with it
+     * (estimated for approximate models), see
+     * TermCountProbabilityModel.getVocabularySize.
+     * 
+     * @return the vocab of the model, 0 when the file does not keep it
+     */
+    public int getVocabularySize() { return vocab; }
+    
+    /**
+     * 
+     * @return the number of terms pushed into the model when it was trained,
+     *      at most Integer.MAX_VALUE
+     */
+    public int getTotalTermCount() {
+        return (int) Math.min(totalTermCount, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * 
+     * @return the number of terms pushed into the model when it was trained
+     */
+    public long getTotalTermCountLong() { return totalTermCount; }
+    
+    /**
+     * The same score as TermCountProbabilityModel.getLogClassProbability, with
+     * this model as the class model, the terms of the document are looked up in
+     * the mapped dictionary.
+     * 
+     * @param tcpm the model of the document to score
+     * @param vocab
+     * @return log of the probability, comparable between class models
+     */
+    public double getLogClassProbability(TermCountProbabilityModel tcpm, int vocab) {
+        TermTable document = tcpm.getTermTable();
+        double logProbability = 0.0;
+        int shared = 0;
+        for (int id = 0; id < document.size(); id++) {
+            int index = indexOf(document.term(id));
+            if (index >= 0) {
+                logProbability += file.getDouble(logProbs + 8L * index)
+                        + document.logProb(id);
+                shared++;
+            }
+        }
+        double logUnseen = -Math.log((double) vocab + totalTermCount);
+        return logProbability + (document.size() - shared) * logUnseen;
+    }
+    
+    /**
+     * Binary search of the dictionary.
+     * 
+     * @param term
+     * @return the index of the term in the file, -1 when it is not present
+     */
+    int indexOf(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(mid, key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 
+     * @param index
+     * @return the decoded term at the index
+     */
+    private String term(int index) {
+        int start = file.getInt(offsets + 4L * index);
+        int end = file.getInt(offsets + 4L * index + 4);
+        byte[] bytes = new byte[end - start];
+        file.get(dictionary + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Compares the term at the index to the key as unsigned bytes.
+     * 
+     * @param index
+     * @param key
+     * @return
+     */
+    private int compare(int index, byte[] key) {
+        long start = dictionary + file.getInt(offsets + 4L * index);
+        int length = file.getInt(offsets + 4L * index + 4)
+                - file.getInt(offsets + 4L * index);
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int c = (file.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return length - key.length;
+    }
+}
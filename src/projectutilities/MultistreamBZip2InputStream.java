@@ -0,0 +1,261 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.io.InputStreamReader;
+import java.util.concurrent.Future;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.io.File;
+
+/**
+ * MultistreamBZip2InputStream - decompresses a multistream bzip2 dump on many
+ * threads, and hands out the decompressed bytes in their order in the file.
+ * 
+ * The multistream Wikipedia dumps are bzip2 streams of a hundred pages each,
+ * one after another, and the index next to the dump has a line for every page
+ * of the offset of its stream in the dump, its id and its title,
+ * 
+ *      597:10:AccessibleComputing
+ * 
+ * The streams are put together into chunks of about CHUNK_BYTES between the
+ * offsets of the index, every chunk is decompressed by a BZip2InputStream of
+ * its own on the pool, and at most READ_AHEAD chunks a thread are decompressed
+ * ahead of the reader. The index is found by the name of the dump,
+ * 
+ *      name-multistream.xml.bz2    name-multistream-index.txt.bz2 (or .txt)
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class MultistreamBZip2InputStream extends InputStream {
+    
+    private static final long CHUNK_BYTES = 1 << 20;
+    private static final int READ_AHEAD = 2;
+    private static final String INDEX = "-index.txt";
+    
+    private final FileChannel channel;
+    private final long[] chunks;        // the offsets of the chunks, and the end
+    private final ExecutorService pool;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int window;
+    private int next;                   // the next chunk to submit
+    private byte[] buffer = new byte[0];
+    private int position;
+    
+    /**
+     * 
+     * @param filename the multistream dump
+     * @param indexFilename the index of the streams of the dump
+     * @param threads the threads decompressing the chunks
+     * @throws IOException
+     */
+    public MultistreamBZip2InputStream(String filename, String indexFilename, int threads)
+            throws IOException {
+        this(filename, readIndex(indexFilename), threads);
+    }
+    
+    /**
+     * 
+     * @param filename the multistream dump
+     * @param offsets the offsets of the streams of the dump, in ascending order
+     * @param threads the threads decompressing the chunks
+     * @throws IOException
+     */
+    public MultistreamBZip2InputStream(String filename, long[] offsets, int threads)
+            throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        long length = channel.size();
+        long[] bounds = new long[offsets.length + 2];
+        int count = 1;
+        for (long offset : offsets) {
+            // the first chunk starts at 0 with the header of the dump, and every
+            // chunk ends at the first offset CHUNK_BYTES after its start
+            if (offset <= bounds[count - 1] || offset >= length) continue;
+            if (offset - bounds[count - 1] >= CHUNK_BYTES) bounds[count++] = offset;
+        }
+        if (length > 0) bounds[count++] = length;
+        chunks = Arrays.copyOf(bounds, count);
+        int poolSize = Math.max(threads, 1);
+        pool = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "bzip2-decompressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        window = poolSize * READ_AHEAD;
+        for (int i = 0; i < window; i++) submitNext();
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @return the index of the multistream dump, or null when there is none
+     */
+    public static String findIndex(String filename) {
+        if (!filename.endsWith(".xml.bz2")) return null;
+        String name = filename.substring(0, filename.length() - ".xml.bz2".length());
+        for (String index : new String[] {name + INDEX + ".bz2", name + INDEX}) {
+            if (new File(index).isFile()) return index;
+        }
+        return null;
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @return true when the file is the index of a multistream dump
+     */
+    public static boolean isIndex(String filename) {
+        return filename.endsWith(INDEX) || filename.endsWith(INDEX + ".bz2");
+    }
+    
+    /**
+     * 
+     * @param indexFilename the index, bzip2 compressed or not
+     * @return the distinct offsets of the streams of the index, in order
+     * @throws IOException
+     */
+    public static long[] readIndex(String indexFilename) throws IOException {
+        long[] offsets = new long[1024];
+        int count = 0;
+        InputStream in = new FileInputStream(indexFilename);
+        if (indexFilename.endsWith(".bz2")) {
+            try {
+                in = new BZip2InputStream(in);
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) continue;
+                long offset = Long.parseLong(line.substring(0, colon));
+                // the pages of a stream share its offset
+                if (count > 0 && offsets[count - 1] == offset) continue;
+                if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = offset;
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid Multistream Index: " + indexFilename);
+        }
+        offsets = Arrays.copyOf(offsets, count);
+        Arrays.sort(offsets);
+        return offsets;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (position == buffer.length && !nextChunk()) return -1;
+        return buffer[position++] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (position == buffer.length && !nextChunk()) return -1;
+        int n = Math.min(length, buffer.length - position);
+        System.arraycopy(buffer, position, bytes, offset, n);
+        position += n;
+        return n;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> chunk : pending) chunk.cancel(true);
+        pending.clear();
+        pool.shutdownNow();
+        channel.close();
+    }
+    
+    /**
+     * Waits for the next chunk in the order of the file, and submits another
+     * one in its place.
+     * 
+     * @return false after the last chunk
+     */
+    private boolean nextChunk() throws IOException {
+        while (true) {
+            Future<byte[]> chunk = pending.poll();
+            if (chunk == null) return false;
+            try {
+                buffer = chunk.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof IOException ? (IOException) cause
+                        : new IOException(cause);
+            }
+            position = 0;
+            submitNext();
+            if (buffer.length > 0) return true;
+        }
+    }
+    
+    private boolean submitNext() {
+        if (next + 1 >= chunks.length) return false;
+        long start = chunks[next], end = chunks[next + 1];
+        next++;
+        pending.add(pool.submit(() -> decompress(start, end)));
+        return true;
+    }
+    
+    /**
+     * 
+     * @param start
+     * @param end
+     * @return the decompressed streams between the offsets
+     */
+    private byte[] decompress(long start, long end) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate((int) (end - start));
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, start + compressed.position()) < 0) {
+                throw new IOException("Multistream Dump Truncated");
+            }
+        }
+        PipelineMetrics.count(PipelineMetrics.Counter.BYTES_READ, end - start);
+        byte[] out = new byte[(int) Math.min((end - start) * 5, Integer.MAX_VALUE - 8)];
+        int length = 0;
+        try (InputStream in = new BZip2InputStream(
+                new ByteArrayInputStream(compressed.array()))) {
+            for (int n; (n = in.read(out, length, out.length - length)) > 0; ) {
+                length += n;
+                if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+            }
+        }
+        return Arrays.copyOf(out, length);
+    }
+}
@@ -0,0 +1,212 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.io.File;
+
+/**
+ * PipelineCheckpoint - the journal of the finished work of the modeler, which
+ * lets a run that crashed be resumed where it stopped.
+ * 
+ * Every finished step is appended to the journal as one tab separated line and
+ * forced to the disk before the run goes on, a later line for the same file
+ * replaces an earlier one, and a torn last line is ignored. Two steps are kept,
+ * 
+ *      converted   export, its length and modification time, the processed
+ *                  export, its length and CRC-32
+ *      tagged      processed export, its length and modification time, the
+ *                  number of its texts tagged and of the segments holding them
+ * 
+ * A conversion is only taken as finished when the export is unchanged and the
+ * processed export written by it is still intact, tagging progress only counts
+ * for the processed export it was made from.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class PipelineCheckpoint {
+    
+    private final HashMap<String, String[]> CONVERTED = new HashMap<>();
+    private final HashMap<String, String[]> TAGGED = new HashMap<>();
+    private final String journalFileName;
+    
+    /**
+     * Reads the journal, a missing journal means nothing has finished yet.
+     * 
+     * @param journalFileName
+     */
+    public PipelineCheckpoint(String journalFileName) {
+        this.journalFileName = journalFileName;
+        try {
+            String journal = new String(Files.readAllBytes(Paths.get(journalFileName)),
+                    StandardCharsets.UTF_8);
+            // only whole lines count, the last line is torn unless it is empty
+            String[] lines = journal.split("\n", -1);
+            for (int i = 0; i < lines.length - 1; i++) {
+                String[] fields = lines[i].split("\t");
+                if (fields[0].equals("converted") && fields.length == 7) {
+                    CONVERTED.put(fields[1], fields);
+                } else if (fields[0].equals("tagged") && fields.length == 6) {
+                    TAGGED.put(fields[1], fields);
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            // nothing has been done yet
+        } catch (IOException ex) {
+            System.err.println("ERR @ PipelineCheckpoint: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 
+     * @param export
+     * @param output the processed export
+     * @return true when the export was converted to the output since it last
+     *      changed, and the output has not changed since
+     */
+    public synchronized boolean isConverted(String export, String output) {
+        String[] fields = CONVERTED.get(export);
+        if (fields == null || !fields[4].equals(output)) return false;
+        File in = new File(export), out = new File(output);
+        if (!fields[2].equals(Long.toString(in.length()))
+                || !fields[3].equals(Long.toString(in.lastModified()))
+                || !out.isFile()
+                || !fields[5].equals(Long.toString(out.length()))) return false;
+        try {
+            return fields[6].equals(Long.toHexString(TrainingManifest.checksum(out)));
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Records that the export has been converted to the output.
+     * 
+     * @param export
+     * @param output the processed export
+     */
+    public synchronized void converted(String export, String output) {
+        File in = new File(export), out = new File(output);
+        try {
+            String[] fields = {"converted", export,
+                Long.toString(in.length()), Long.toString(in.lastModified()),
+                output, Long.toString(out.length()),
+                Long.toHexString(TrainingManifest.checksum(out))};
+            append(fields);
+            CONVERTED.put(export, fields);
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 
+     * @param xml the processed export
+     * @return the number of its texts that have been tagged, zero when the
+     *      processed export changed since
+     */
+    public synchronized int getTaggedTexts(String xml) {
+        String[] fields = tagged(xml);
+        return fields == null ? 0 : Integer.parseInt(fields[4]);
+    }
+    
+    /**
+     * 
+     * @param xml the processed export
+     * @return the number of segments holding its tagged texts
+     */
+    public synchronized int getTaggedSegments(String xml) {
+        String[] fields = tagged(xml);
+        return fields == null ? 0 : Integer.parseInt(fields[5]);
+    }
+    
+    /**
+     * Records that the first texts of the processed export have been tagged and
+     * sealed into the first segments of its store.
+     * 
+     * @param xml the processed export
+     * @param texts
+     * @param segments
+     */
+    public synchronized void tagged(String xml, int texts, int segments) {
+        File in = new File(xml);
+        String[] fields = {"tagged", xml,
+            Long.toString(in.length()), Long.toString(in.lastModified()),
+            Integer.toString(texts), Integer.toString(segments)};
+        try {
+            append(fields);
+            TAGGED.put(xml, fields);
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Forgets all finished work and deletes the journal, a run that is not
+     * resumed starts over.
+     */
+    public synchronized void clear() {
+        CONVERTED.clear();
+        TAGGED.clear();
+        new File(journalFileName).delete();
+    }
+    
+    /**
+     * 
+     * @param xml
+     * @return the tagging record of the processed export, null when there is
+     *      none or the processed export changed since
+     */
+    private String[] tagged(String xml) {
+        String[] fields = TAGGED.get(xml);
+        if (fields == null) return null;
+        File in = new File(xml);
+        if (!fields[2].equals(Long.toString(in.length()))
+                || !fields[3].equals(Long.toString(in.lastModified()))) return null;
+        return fields;
+    }
+    
+    /**
+     * Appends the line to the journal and forces it to the disk.
+     * 
+     * @param fields
+     * @throws IOException
+     */
+    private void append(String[] fields) throws IOException {
+        byte[] line = (String.join("\t", fields) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(Paths.get(journalFileName),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.management.ObjectName;
+import javax.management.JMException;
+import java.io.FilterOutputStream;
+import java.io.FilterInputStream;
+import java.io.OutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.Map;
+
+/**
+ * PipelineMetrics - the counters, latency histograms and queue depths of the
+ * stages of the modeler.
+ * 
+ * The counters are LongAdders, the histograms count the latencies in buckets
+ * of powers of two nanoseconds (so a percentile is accurate to a factor of two)
+ * and the gauges read the depth of a queue when asked. While the metrics are
+ * enabled they are registered with JMX and a line of name=value pairs is logged
+ * periodically, when disabled every recording call returns after reading the
+ * one volatile flag, the timers do not even read the clock.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class PipelineMetrics implements PipelineMetricsMXBean {
+    
+    /**
+     * The counted events of the pipeline.
+     */
+    public enum Counter {
+        PAGES_PARSED("pages_parsed"),
+        PARAGRAPHS_EXTRACTED("paragraphs_extracted"),
+        TEXTS_TAGGED("texts_tagged"),
+        TEXTS_FAILED("texts_failed"),
+        TOKENS_TAGGED("tokens_tagged"),
+        TERMS_PUSHED("terms_pushed"),
+        BYTES_READ("bytes_read"),
+        BYTES_WRITTEN("bytes_written");
+    
+        private final String key;
+        private final LongAdder adder = new LongAdder();
+    
+        Counter(String key) { this.key = key; }
+    }
+    
+    /**
+     * The timed operations of the pipeline.
+     */
+    public enum Timer {
+        PAGE_EXTRACTION("page_extraction"),
+        TAGGING("tagging"),
+        TAGGER_LOAD("tagger_load"),
+        SEGMENT_TRAINING("segment_training");
+    
+        private final String key;
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+    
+        Timer(String key) { this.key = key; }
+    
+        /**
+         * 
+         * @param fraction
+         * @return the upper bound (in nanoseconds) of the bucket holding the
+         *      fraction of the recorded latencies
+         */
+        private long percentile(double fraction) {
+            long[] counts = new long[buckets.length()];
+            long all = 0;
+            for (int i = 0; i < counts.length; i++) all += counts[i] = buckets.get(i);
+            long rank = (long) Math.ceil(fraction * all);
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+                if (rank <= 0 && counts[i] > 0) return i >= 62 ? Long.MAX_VALUE : 2L << i;
+            }
+            return 0;
+        }
+    }
+    
+    private static final String OBJECT_NAME = "projectutilities:type=PipelineMetrics";
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+    private static final ConcurrentHashMap<String, LongSupplier> GAUGES
+            = new ConcurrentHashMap<>();
+    
+    private static volatile boolean enabled = false;
+    private static ScheduledExecutorService logger;
+    private static long enabledAt;
+    
+    private PipelineMetrics() {}
+    
+    /**
+     * Starts recording, registers the metrics with JMX and logs the metrics
+     * line every period to System.err.
+     * 
+     * @param periodSeconds the period of the log line, 0 for no log line
+     */
+    public static synchronized void enable(long periodSeconds) {
+        if (enabled) return;
+        enabledAt = System.nanoTime();
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            System.err.println("ERR @ PipelineMetrics: " + ex.getMessage());
+        }
+        if (periodSeconds > 0) {
+            logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pipeline-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            logger.scheduleAtFixedRate(() -> System.err.println(INSTANCE.getLine()),
+                    periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        }
+    }
+    
+    /**
+     * Stops recording, logs the final metrics line and unregisters from JMX.
+     */
+    public static synchronized void disable() {
+        if (!enabled) return;
+        if (logger != null) {
+            logger.shutdownNow();
+            logger = null;
+        }
+        System.err.println(INSTANCE.getLine());
+        enabled = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            System.err.println("ERR @ PipelineMetrics: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * @return true while the metrics are recorded
+     */
+    public static boolean isEnabled() { return enabled; }
+    
+    /**
+     * 
+     * @param counter
+     * @param n added to the counter
+     */
+    public static void count(Counter counter, long n) {
+        if (enabled) counter.adder.add(n);
+    }
+    
+    /**
+     * 
+     * @return the start time of an operation to pass to stop, 0 when disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+    
+    /**
+     * Records the time since the start of the operation.
+     * 
+     * @param timer
+     * @param start the value start returned
+     */
+    public static void stop(Timer timer, long start) {
+        if (enabled && start != 0) record(timer, System.nanoTime() - start);
+    }
+    
+    /**
+     * Records a latency that was measured elsewhere.
+     * 
+     * @param timer
+     * @param nanos
+     */
+    public static void record(Timer timer, long nanos) {
+        if (!enabled) return;
+        int bucket = nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos - 1);
+        timer.buckets.incrementAndGet(bucket);
+        timer.count.increment();
+        timer.total.add(nanos);
+    }
+    
+    /**
+     * Adds a gauge, typically the depth of a queue between two stages, it is
+     * read whenever the metrics are reported.
+     * 
+     * @param name
+     * @param gauge
+     */
+    public static void addGauge(String name, LongSupplier gauge) {
+        GAUGES.put(name, gauge);
+    }
+    
+    /**
+     * 
+     * @param name
+     */
+    public static void removeGauge(String name) {
+        GAUGES.remove(name);
+    }
+    
+    /**
+     * Wraps the stream so the bytes read are counted while the metrics are
+     * enabled, the stream itself is returned when they are not.
+     * 
+     * @param in
+     * @return
+     */
+    public static InputStream counting(InputStream in) {
+        if (!enabled) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) count(Counter.BYTES_READ, 1);
+                return b;
+            }
+    
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) count(Counter.BYTES_READ, n);
+                return n;
+            }
+        };
+    }
+    
+    /**
+     * Wraps the stream so the bytes written are counted while the metrics are
+     * enabled, the stream itself is returned when they are not.
+     * 
+     * @param out
+     * @return
+     */
+    public static OutputStream counting(OutputStream out) {
+        if (!enabled) return out;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count(Counter.BYTES_WRITTEN, 1);
+            }
+    
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count(Counter.BYTES_WRITTEN, len);
+            }
+        };
+    }
+    
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            counters.put(counter.key, counter.adder.sum());
+        }
+        return counters;
+    }
+    
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> gauges = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> gauges.put(name, gauge.getAsLong()));
+        return gauges;
+    }
+    
+    @Override
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            long count = timer.count.sum();
+            latencies.put(timer.key + ".count", count);
+            latencies.put(timer.key + ".mean_us",
+                    count == 0 ? 0 : timer.total.sum() / count / 1000);
+            latencies.put(timer.key + ".p50_us", timer.percentile(0.50) / 1000);
+            latencies.put(timer.key + ".p99_us", timer.percentile(0.99) / 1000);
+        }
+        return latencies;
+    }
+    
+    @Override
+    public String getLine() {
+        StringBuilder line = new StringBuilder("METRICS");
+        line.append(" uptime_ms=").append((System.nanoTime() - enabledAt) / 1000000);
+        getCounters().forEach((name, value) -> line.append(' ').append(name)
+                .append('=').append(value));
+        getLatencies().forEach((name, value) -> line.append(' ').append(name)
+                .append('=').append(value));
+        getGauges().forEach((name, value) -> line.append(" queue.").append(name)
+                .append('=').append(value));
+        return line.toString();
+    }
+}
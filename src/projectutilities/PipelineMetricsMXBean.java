@@ -0,0 +1,52 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.Map;
+
+/**
+ * PipelineMetricsMXBean - the JMX view of the PipelineMetrics, registered as
+ * projectutilities:type=PipelineMetrics while the metrics are enabled.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public interface PipelineMetricsMXBean {
+    
+    /**
+     * @return the value of every counter by name
+     */
+    Map<String, Long> getCounters();
+    
+    /**
+     * @return the current value of every gauge (queue depth) by name
+     */
+    Map<String, Long> getGauges();
+    
+    /**
+     * @return the count, mean and percentiles (in microseconds) of every
+     *      latency histogram, by name and statistic, e.g. "tagging.p99_us"
+     */
+    Map<String, Long> getLatencies();
+    
+    /**
+     * @return the metrics line that is also written to the log
+     */
+    String getLine();
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+import java.io.BufferedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * ProcessedExportWriter - incremental writer for the ProcessedSpecialExportData
+ * format, each page is written to disk as soon as it is handed to the writer so
+ * the refined corpus never has to be held in memory as a whole.
+ * 
+ * The file is written through a buffered FileChannel, optionally gzip encoded,
+ * and the result can be read back by getTextsFromProcessedExport.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class ProcessedExportWriter implements Closeable {
+    
+    /**
+     * The supported encodings of the written file.
+     */
+    public enum Compression { NONE, GZIP }
+    
+    private static final String DECLARATION =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final XMLStreamWriter writer;
+    private final OutputStream out;
+    private boolean failed;     // a page was not written whole, or not read
+    
+    /**
+     * Opens a writer for the file, the output is gzip encoded when the name of
+     * the file ends with ".gz" and written as plain xml otherwise.
+     * 
+     * @param filename
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public ProcessedExportWriter(String filename)
+            throws IOException, XMLStreamException {
+        this(filename, filename.endsWith(".gz") ? Compression.GZIP : Compression.NONE);
+    }
+    
+    /**
+     * Opens a writer for the file using the given compression, any existing
+     * file is truncated, then the xml declaration and root element are written.
+     * 
+     * @param filename
+     * @param compression
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public ProcessedExportWriter(String filename, Compression compression)
+            throws IOException, XMLStreamException {
+        FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            OutputStream stream = PipelineMetrics.counting(Channels.newOutputStream(channel));
+            if (compression == Compression.GZIP) {
+                stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+            }
+            out = new BufferedOutputStream(stream, BUFFER_SIZE);
+            out.write(DECLARATION.getBytes(StandardCharsets.UTF_8));
+            XMLOutputFactory factory = XMLOutputFactory.newInstance();
+            writer = factory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartElement("ProcessedSpecialExportData");
+        } catch (IOException | XMLStreamException | RuntimeException ex) {
+            // the streams only hold the channel, closing it releases the file
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Writes a single page element, the layout is the title, then one text
+     * element per paragraph, followed by the categories and the anchors.
+     * 
+     * @param title
+     * @param texts
+     * @param categories
+     * @param anchors
+     * @throws XMLStreamException
+     */
+    public void writePage(String title, List<String> texts,
+            List<String> categories, List<String> anchors)
+            throws XMLStreamException {
+        try {
+            writer.writeStartElement("page");
+            writeTextElement("title", title);
+            for (String p : texts) {
+                writeTextElement("text", p);
+            }
+            writeTextElement("categories", stringifyList(categories));
+            writeTextElement("anchors", stringifyList(anchors));
+            writer.writeEndElement();
+        } catch (XMLStreamException | RuntimeException ex) {
+            failed = true;
+            throw ex;
+        }
+    }
+    
+    /**
+     * Marks the export as incomplete, for a failure on the side of the input,
+     * the root element is then left open when the writer is closed.
+     */
+    public void abort() {
+        failed = true;
+    }
+    
+    /**
+     * Closes the root element and flushes everything out to the file, after a
+     * page failed to be written, or the writer was aborted, the root element
+     * is left open, so the file is not taken for a complete export.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                writer.writeEndDocument();
+                writer.flush();
+            }
+            writer.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * 
+     * @param name
+     * @param content
+     */
+    private void writeTextElement(String name, String content)
+            throws XMLStreamException {
+        if (content.isEmpty()) {
+            writer.writeEmptyElement(name);
+        } else {
+            writer.writeStartElement(name);
+            writer.writeCharacters(content);
+            writer.writeEndElement();
+        }
+    }
+    
+    /**
+     * 
+     * @param list
+     * @return
+     */
+    private String stringifyList(List<String> list) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : list) {
+            sb.append(' ');
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.time.format.DateTimeParseException;
+import java.time.Instant;
+
+/**
+ * RevisionFilter - decides which revisions of a page of a Special:Export are
+ * processed, every selected revision is processed as a page of its own.
+ * 
+ * Exports with the full history hold many revisions of every page, while the
+ * streaming processor only copies the text of the revisions the filter selects,
+ * the text of every other revision is passed over by the parser without being
+ * kept (except with latest, see isLatest). The filters are:
+ * 
+ *      first       the first revision of the page (the default, as before)
+ *      first:N     the first N revisions of the page
+ *      latest      the last revision of the page, the most recent one
+ *      FROM..TO    the revisions with a timestamp from FROM up to (but not
+ *                  including) TO, either may be left out, e.g.
+ *                  2016-01-01T00:00:00Z..2016-07-01T00:00:00Z
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public final class RevisionFilter {
+    
+    /**
+     * The first revision of every page, the revision processed before revisions
+     * could be selected.
+     */
+    public static final RevisionFilter FIRST = new RevisionFilter(1, false, null, null);
+    
+    /**
+     * The last (the most recent) revision of every page.
+     */
+    public static final RevisionFilter LATEST = new RevisionFilter(0, true, null, null);
+    
+    private final int first;        // the first revisions selected, 0 for all
+    private final boolean latest;
+    private final String from;      // ISO-8601 timestamps, compared as text
+    private final String to;
+    
+    private RevisionFilter(int first, boolean latest, String from, String to) {
+        this.first = first;
+        this.latest = latest;
+        this.from = from;
+        this.to = to;
+    }
+    
+    /**
+     * 
+     * @param n
+     * @return the filter of the first n revisions of every page
+     */
+    public static RevisionFilter firstN(int n) {
+        if (n < 1) throw new IllegalArgumentException("Invalid Revisions: first:" + n);
+        return new RevisionFilter(n, false, null, null);
+    }
+    
+    /**
+     * 
+     * @param from the earliest timestamp selected, or null
+     * @param to the timestamp after the last selected, or null
+     * @return the filter of the revisions with a timestamp in the range
+     */
+    public static RevisionFilter between(String from, String to) {
+        try {
+            // the timestamps of the exports are compared as text, which needs
+            // the one ISO-8601 form the exports use
+            if (from != null) from = Instant.parse(from).toString();
+            if (to != null) to = Instant.parse(to).toString();
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid Timestamp: " + ex.getParsedString());
+        }
+        return new RevisionFilter(0, false, from, to);
+    }
+    
+    /**
+     * 
+     * @param spec first, first:N, latest or FROM..TO
+     * @return the filter of the spec
+     */
+    public static RevisionFilter parse(String spec) {
+        spec = spec.trim();
+        if (spec.equals("first")) return FIRST;
+        if (spec.equals("latest")) return LATEST;
+        if (spec.startsWith("first:")) {
+            return firstN(Integer.parseInt(spec.substring("first:".length())));
+        }
+        int range = spec.indexOf("..");
+        if (range < 0) throw new IllegalArgumentException("Unknown Revisions: " + spec);
+        String start = spec.substring(0, range), end = spec.substring(range + 2);
+        return between(start.isEmpty() ? null : start, end.isEmpty() ? null : end);
+    }
+    
+    /**
+     * 
+     * @return true when only the last revision is selected, which is not known
+     *      before the element after it, so the text of every revision is copied
+     *      and kept until the next revision starts
+     */
+    public boolean isLatest() { return latest; }
+    
+    /**
+     * 
+     * @return true when the timestamp of a revision is needed to select it
+     */
+    public boolean needsTimestamp() { return from != null || to != null; }
+    
+    /**
+     * 
+     * @param index the index of the revision in the page
+     * @return true when no revision of the page from the index on is selected
+     */
+    public boolean isDone(int index) { return first > 0 && index >= first; }
+    
+    /**
+     * 
+     * @param index the index of the revision in the page
+     * @param timestamp the timestamp of the revision, empty when it has none
+     * @return true when the revision is selected
+     */
+    public boolean accepts(int index, CharSequence timestamp) {
+        if (latest) return true;
+        if (first > 0) return index < first;
+        if (timestamp.length() == 0) return false;
+        String time = timestamp.toString().trim();
+        return (from == null || time.compareTo(from) >= 0)
+                && (to == null || time.compareTo(to) < 0);
+    }
+    
+    @Override
+    public String toString() {
+        if (latest) return "latest";
+        if (first == 1) return "first";
+        if (first > 1) return "first:" + first;
+        return (from == null ? "" : from) + ".." + (to == null ? "" : to);
+    }
+}
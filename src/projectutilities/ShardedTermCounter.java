@@ -0,0 +1,313 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.nio.charset.StandardCharsets;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.util.PriorityQueue;
+import java.util.Collections;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ShardedTermCounter - counts terms from many threads at once.
+ * 
+ * The terms are spread over shards by their hash, every shard is an open
+ * addressing table of the terms, their hashes and their counts in primitive
+ * arrays, guarded by the lock of the shard, so an increment boxes nothing and
+ * threads only wait for each other when they count terms of the same shard.
+ * Terms can be counted straight from a range of a char buffer, a String is only
+ * created the first time a term is seen.
+ * 
+ * The top terms are found with a heap of k entries, and the report is written
+ * sorted by count through a buffered writer, the counts are sorted as primitive
+ * longs, so the sort takes two arrays of the size of the table and no objects.
+ * The terms of the same count are not sorted, comparing millions of terms in
+ * random order takes far longer than the rest of the report.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class ShardedTermCounter {
+    
+    private static final int INITIAL_CAPACITY = 1 << 8;     // slots per shard
+    
+    private final Shard[] shards;
+    private final int shardShift;
+    
+    /**
+     * Default Constructor - enough shards for the threads of the machine.
+     */
+    public ShardedTermCounter() {
+        this(Runtime.getRuntime().availableProcessors() * 8);
+    }
+    
+    /**
+     * 
+     * @param concurrency the number of threads expected to count at once, the
+     *      number of shards is the next power of two above it
+     */
+    public ShardedTermCounter(int concurrency) {
+        int count = Integer.highestOneBit(Math.max(concurrency, 2) - 1) << 1;
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) shards[i] = new Shard();
+        shardShift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+    
+    /**
+     * 
+     * @param term
+     * @param n added to the count of the term
+     */
+    public void add(String term, long n) {
+        int hash = mix(term.hashCode());
+        shards[hash >>> shardShift].add(term, null, 0, 0, hash, n);
+    }
+    
+    /**
+     * 
+     * @param chars
+     * @param start
+     * @param end
+     * @param n added to the count of the term in the range of the chars
+     */
+    public void add(char[] chars, int start, int end, long n) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + chars[i];
+        hash = mix(hash);
+        shards[hash >>> shardShift].add(null, chars, start, end, hash, n);
+    }
+    
+    /**
+     * Counts every token of a tagged text.
+     * 
+     * @param tagged the tagged text, as returned by the tagger
+     * @return the number of tokens counted
+     */
+    public int addTokens(String tagged) {
+        int[] tokens = new int[1];
+        TaggedTokenReader.scan(tagged, (chars, start, separator, end) -> {
+            add(chars, start, end, 1);
+            tokens[0]++;
+        });
+        return tokens[0];
+    }
+    
+    /**
+     * 
+     * @param term
+     * @return the count of the term, zero when it was not counted
+     */
+    public long get(String term) {
+        int hash = mix(term.hashCode());
+        return shards[hash >>> shardShift].get(term, hash);
+    }
+    
+    /**
+     * 
+     * @return the number of distinct terms
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Clears the terms and their counts.
+     */
+    public void clear() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.reset();
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @param k
+     * @return the k terms of the highest counts, highest first
+     */
+    public List<Map.Entry<String, Long>> topK(int k) {
+        Comparator<Map.Entry<String, Long>> order = Comparator
+                .comparing((Map.Entry<String, Long> entry) -> entry.getValue())
+                .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(k + 1, order);
+        if (k <= 0) return new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (int slot = 0; slot < shard.keys.length; slot++) {
+                    if (shard.keys[slot] == null) continue;
+                    long count = shard.counts[slot];
+                    if (heap.size() < k || count >= heap.peek().getValue()) {
+                        heap.add(new SimpleImmutableEntry<>(shard.keys[slot], count));
+                        if (heap.size() > k) heap.poll();
+                    }
+                }
+            }
+        }
+        List<Map.Entry<String, Long>> top = new ArrayList<>(heap);
+        top.sort(Collections.reverseOrder(order));
+        return top;
+    }
+    
+    /**
+     * Writes a line of "term -> count" for every term, highest count first.
+     * 
+     * @param filename
+     * @throws IOException
+     */
+    public void writeReport(String filename) throws IOException {
+        // snapshot the tables, one shard at a time
+        String[] terms = new String[Math.max(size(), 16)];
+        long[] counts = new long[terms.length];
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (size + shard.size > terms.length) {
+                    terms = Arrays.copyOf(terms, (size + shard.size) * 2);
+                    counts = Arrays.copyOf(counts, terms.length);
+                }
+                for (int slot = 0; slot < shard.keys.length; slot++) {
+                    if (shard.keys[slot] == null) continue;
+                    terms[size] = shard.keys[slot];
+                    counts[size++] = shard.counts[slot];
+                }
+            }
+        }
+        // sort by count as (count, index) pairs packed into longs, the few terms
+        // counted Integer.MAX_VALUE times or more share the top packed count
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            packed[i] = (Math.min(counts[i], Integer.MAX_VALUE) << 32) | i;
+        }
+        Arrays.sort(packed);
+        int huge = 0;
+        while (huge < size && packed[size - 1 - huge] >>> 32 == Integer.MAX_VALUE) huge++;
+        Integer[] top = new Integer[huge];
+        for (int i = 0; i < huge; i++) top[i] = (int) packed[size - 1 - i];
+        long[] topCounts = counts;
+        Arrays.sort(top, (a, b) -> Long.compare(topCounts[b], topCounts[a]));
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), StandardCharsets.UTF_8), 1 << 16)) {
+            for (int i = 0; i < size; i++) {
+                int index = i < huge ? top[i] : (int) packed[size - 1 - i];
+                out.write(terms[index]);
+                out.write(" -> ");
+                out.write(Long.toString(counts[index]));
+                out.write('\n');
+            }
+        }
+    }
+    
+    /**
+     * The high bits of the mixed hash pick the shard, the low bits the slot.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+    
+    /**
+     * An open addressing table of terms and counts, used under its own lock.
+     */
+    private static final class Shard {
+    
+        private String[] keys;
+        private int[] hashes;
+        private long[] counts;
+        private int size;
+    
+        private Shard() { reset(); }
+    
+        private void reset() {
+            keys = new String[INITIAL_CAPACITY];
+            hashes = new int[INITIAL_CAPACITY];
+            counts = new long[INITIAL_CAPACITY];
+            size = 0;
+        }
+    
+        /**
+         * Adds to the count of the term, given either as a String or as the
+         * range of the chars.
+         */
+        private synchronized void add(String term, char[] chars, int start, int end,
+                int hash, long n) {
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                String key = keys[slot];
+                if (key == null) {
+                    keys[slot] = term != null ? term : new String(chars, start, end - start);
+                    hashes[slot] = hash;
+                    counts[slot] = n;
+                    if (++size * 2 > keys.length) grow();
+                    return;
+                }
+                if (hashes[slot] == hash && (term != null
+                        ? key.equals(term)
+                        : TaggedTokenReader.regionEquals(chars, start, end, key))) {
+                    counts[slot] += n;
+                    return;
+                }
+            }
+        }
+    
+        private synchronized long get(String term, int hash) {
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == null) return 0;
+                if (hashes[slot] == hash && keys[slot].equals(term)) return counts[slot];
+            }
+        }
+    
+        /**
+         * Doubles the table and reinserts the terms by their cached hashes.
+         */
+        private void grow() {
+            String[] oldKeys = keys;
+            int[] oldHashes = hashes;
+            long[] oldCounts = counts;
+            keys = new String[oldKeys.length << 1];
+            hashes = new int[keys.length];
+            counts = new long[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
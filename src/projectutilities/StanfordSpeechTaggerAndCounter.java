@@ -18,14 +18,38 @@
 package projectutilities;
 
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
-import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.io.IOException;
 import java.io.FileWriter;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.io.File;
 
 /**
  * StandfordSpeechTaggerAndCounter.
+ * 
+ * The tagger is safe to use from several threads at once, the Stanford taggers
+ * are kept in a shared pool and every call borrows one for the duration of the
+ * tagging, and the word counts are kept in a ShardedTermCounter. The batches of
+ * an instance are tagged on a thread pool of its own, which is kept for all of
+ * its batches, and its threads wait for a tagger when all of them are in use.
+ * 
+ * Loading a tagger model takes seconds and a lot of memory, every tagger of the
+ * pool is a full copy of the tagger model in the heap (a multiple of the size
+ * of the model file), so the pool is not sized by the threads, it holds at most
+ * setPoolSize taggers, 2 unless set, and the taggers are only loaded when they
+ * are first needed. The pool is shared by all instances, a long running process
+ * can load it once with preload and reuse it for every job, and the time spent
+ * loading is reported to the LoadListener when set.
+ * 
+ * A TagCache can be set in front of the taggers, the texts found in it are not
+ * tagged again, their words are still counted.
  *
  * @author W. Hatfield
  * @author U. Jaimini
@@ -35,8 +59,163 @@ public class StanfordSpeechTaggerAndCounter {
     
     private static final String MODELFILE =
             "stanford-postagger/english-left3words-distsim.tagger";
-    private static final MaxentTagger TAGGER = new MaxentTagger(MODELFILE);
-    private static final HashMap<String, Integer> MAP = new HashMap<>();
+    private static final String WARM_UP = "This sentence warms up the tagger .";
+    private static final int DEFAULT_POOL_SIZE = 2;
+    private static final ShardedTermCounter MAP = new ShardedTermCounter();
+    
+    /**
+     * The idle taggers, more are created on demand up to the pool size, it is
+     * the lock of the pool and is notified when a tagger is returned or fails
+     * to load.
+     */
+    private static final ArrayDeque<MaxentTagger> POOL = new ArrayDeque<>();
+    private static String modelFile = MODELFILE;
+    private static String modelIdentity = null;
+    private static int poolSize = DEFAULT_POOL_SIZE;
+    private static int created = 0;
+    
+    /**
+     * Receives the time it took to load each tagger model.
+     */
+    public interface LoadListener {
+        void taggerLoaded(String modelFile, long nanos);
+    }
+    
+    private static volatile LoadListener listener;
+    private static volatile TagCache cache;
+    
+    /**
+     * The number of threads used by tagNormalizedStrings.
+     */
+    private final int threads;
+    
+    /**
+     * The threads of tagNormalizedStrings, daemon threads so an instance that
+     * is not used anymore does not keep the program running.
+     */
+    private final ExecutorService executor;
+    
+    /**
+     * Default Constructor - tags with the single shared tagger.
+     */
+    public StanfordSpeechTaggerAndCounter() {
+        this(1);
+    }
+    
+    /**
+     * Creates a tagger that tags batches on the given number of threads, the
+     * threads share the taggers of the pool, which is not grown for them.
+     * 
+     * @param threads 
+     */
+    public StanfordSpeechTaggerAndCounter(int threads) {
+        this.threads = Math.max(threads, 1);
+        this.executor = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "stanford-tagger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Sets the most taggers the shared pool holds, each of them a copy of the
+     * tagger model in the heap. The taggers already loaded are kept when the
+     * size is lowered.
+     * 
+     * @param size at least 1
+     */
+    public static void setPoolSize(int size) {
+        synchronized (POOL) {
+            poolSize = Math.max(size, 1);
+            POOL.notifyAll();
+        }
+    }
+    
+    /**
+     * @return the most taggers the shared pool holds
+     */
+    public static int getPoolSize() {
+        synchronized (POOL) {
+            return poolSize;
+        }
+    }
+    
+    /**
+     * Sets the tagger model to load, which must happen before the first tagger
+     * is loaded, otherwise an IllegalStateException is thrown.
+     * 
+     * @param filename 
+     */
+    public static void setModelFile(String filename) {
+        synchronized (POOL) {
+            if (created > 0) {
+                throw new IllegalStateException("Tagger Already Loaded: " + modelFile);
+            }
+            modelFile = filename;
+            modelIdentity = null;
+        }
+    }
+    
+    /**
+     * @return the tagger model that is (or will be) loaded
+     */
+    public static String getModelFile() {
+        synchronized (POOL) {
+            return modelFile;
+        }
+    }
+    
+    /**
+     * The identity of the tagger model, its file name, length and modification
+     * time, which tells the tagged texts of one model from another in a cache.
+     * 
+     * @return 
+     */
+    public static String getModelIdentity() {
+        synchronized (POOL) {
+            if (modelIdentity == null) {
+                File file = new File(modelFile);
+                modelIdentity = file.getAbsolutePath() + "|" + file.length()
+                        + "|" + file.lastModified();
+            }
+            return modelIdentity;
+        }
+    }
+    
+    /**
+     * 
+     * @param tagCache the cache of tagged texts to use, null for none
+     */
+    public static void setTagCache(TagCache tagCache) {
+        cache = tagCache;
+    }
+    
+    /**
+     * 
+     * @param loadListener the hook receiving the load times, null for none
+     */
+    public static void setLoadListener(LoadListener loadListener) {
+        listener = loadListener;
+    }
+    
+    /**
+     * Loads a tagger for every thread of this instance, up to the pool size, and
+     * tags a sentence with each of them, so the first texts tagged do not pay
+     * for the warm up.
+     */
+    public void preload() {
+        int taggers = Math.min(threads, getPoolSize());
+        ArrayList<MaxentTagger> loaded = new ArrayList<>(taggers);
+        try {
+            for (int i = 0; i < taggers; i++) {
+                MaxentTagger tagger = borrowTagger();
+                loaded.add(tagger);
+                tagger.tagString(WARM_UP);
+            }
+        } finally {
+            for (MaxentTagger tagger : loaded) returnTagger(tagger);
+        }
+    }
     
     /**
      * 
@@ -44,9 +223,19 @@ public class StanfordSpeechTaggerAndCounter {
      * @param filename 
      */
     public void tagTextAndWriteFile(String text, String filename) {
+        writeTaggedText(tagNormalizedString(text), filename);
+    }
+    
+    /**
+     * Writes an already tagged text to the file.
+     * 
+     * @param tagged
+     * @param filename 
+     */
+    public void writeTaggedText(String tagged, String filename) {
         try {
             FileWriter fw = new FileWriter(new File(filename));
-            fw.write(tagNormalizedString(text));
+            fw.write(tagged);
             fw.close();
         } catch (IOException ex) {
             System.err.println("IOException: " + ex.getMessage());
@@ -57,36 +246,155 @@ public class StanfordSpeechTaggerAndCounter {
      * tagNormalizedString - takes a single String argument, that should have
      * been normalized by the WikipediaSpecialExportProcessor, then completes
      * the Part-of-Speech Tagging using Stanford Maximum Entropy Tagger, after
-     * which the terms are counted and added to a hash map to keep count.
+     * which the terms are counted in the ShardedTermCounter.
      * 
      * @param toTag
      * @return 
      */
     public String tagNormalizedString(String toTag) {
-        String taggedString = TAGGER.tagString(toTag);
-        
-        String[] taggedStringArray = taggedString.split(" ");
-        for (String toCheck : taggedStringArray) {
-            Integer wordCount = MAP.get(toCheck);
-            wordCount = (wordCount != null) ? wordCount + 1 : 1;
-            MAP.put(toCheck, wordCount);
+        TagCache tagCache = cache;
+        String key = null;
+        String taggedString = null;
+        if (tagCache != null) {
+            key = TagCache.key(getModelIdentity(), toTag);
+            taggedString = tagCache.get(key);
+        }
+        if (taggedString == null) {
+            MaxentTagger tagger = borrowTagger();
+            long start = PipelineMetrics.start();
+            try {
+                taggedString = tagger.tagString(toTag);
+            } finally {
+                returnTagger(tagger);
+            }
+            PipelineMetrics.stop(PipelineMetrics.Timer.TAGGING, start);
+            if (tagCache != null) tagCache.put(key, taggedString);
         }
         
+        int tokens = MAP.addTokens(taggedString);
+        PipelineMetrics.count(PipelineMetrics.Counter.TEXTS_TAGGED, 1);
+        PipelineMetrics.count(PipelineMetrics.Counter.TOKENS_TAGGED, tokens);
+        
         return taggedString;
     }
     
     /**
+     * Tags a batch of normalized strings in parallel, the tagged strings are
+     * returned in the order of the texts, and a text that could not be tagged
+     * is returned as null and counted as failed in the PipelineMetrics.
+     * 
+     * @param texts
+     * @return 
+     */
+    public List<String> tagNormalizedStrings(List<String> texts) {
+        ArrayList<Callable<String>> tasks = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            tasks.add(() -> tagNormalizedString(text));
+        }
+        ArrayList<String> tagged = new ArrayList<>(texts.size());
+        List<Future<String>> futures = new ArrayList<>();
+        try {
+            futures = executor.invokeAll(tasks);
+            for (Future<String> future : futures) {
+                try {
+                    tagged.add(future.get());
+                } catch (ExecutionException ex) {
+                    System.err.println("ExecutionException: " + ex.getCause());
+                    tagged.add(null);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.err.println("InterruptedException: " + ex.getMessage());
+            for (Future<String> future : futures) future.cancel(true);
+            while (tagged.size() < texts.size()) tagged.add(null);
+        }
+        int failed = 0;
+        for (String taggedString : tagged) {
+            if (taggedString == null) failed++;
+        }
+        if (failed > 0) PipelineMetrics.count(PipelineMetrics.Counter.TEXTS_FAILED, failed);
+        return tagged;
+    }
+    
+    /**
+     * Takes an idle tagger from the pool, creating a new one while the pool is
+     * below its size, otherwise waits for another thread to return a tagger,
+     * or to fail loading one, in which case the waiting thread loads it.
+     * 
+     * @return 
+     */
+    private static MaxentTagger borrowTagger() {
+        String toLoad;
+        boolean interrupted = false;
+        synchronized (POOL) {
+            try {
+                while (true) {
+                    MaxentTagger tagger = POOL.poll();
+                    if (tagger != null) return tagger;
+                    if (created < poolSize) {
+                        created++;
+                        toLoad = modelFile;
+                        break;
+                    }
+                    try {
+                        POOL.wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+        return loadTagger(toLoad);
+    }
+    
+    /**
+     * Puts the tagger back in the pool and wakes a thread waiting for one.
+     * 
+     * @param tagger 
+     */
+    private static void returnTagger(MaxentTagger tagger) {
+        synchronized (POOL) {
+            POOL.add(tagger);
+            POOL.notifyAll();
+        }
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @return 
+     */
+    private static MaxentTagger loadTagger(String filename) {
+        long start = System.nanoTime();
+        MaxentTagger tagger;
+        try {
+            tagger = new MaxentTagger(filename);
+        } catch (RuntimeException | Error ex) {
+            // the slot is given back, a waiting thread tries to load it
+            synchronized (POOL) {
+                created--;
+                POOL.notifyAll();
+            }
+            throw ex;
+        }
+        long nanos = System.nanoTime() - start;
+        PipelineMetrics.record(PipelineMetrics.Timer.TAGGER_LOAD, nanos);
+        LoadListener hook = listener;
+        if (hook != null) hook.taggerLoaded(filename, nanos);
+        return tagger;
+    }
+    
+    /**
+     * Writes the count of every word, the most frequent words first.
      *
      * @param filename
      */
     public void writeReport(String filename) {
         try {
-            FileWriter fw = new FileWriter(new File(filename));
-            for (Entry<String, Integer> entry : MAP.entrySet()) {
-                String toWrite = entry.getKey() + " -> " + entry.getValue();
-                fw.write(toWrite + "\n");
-            }
-            fw.close();
+            MAP.writeReport(filename);
         } catch (IOException ex) {
             System.err.println("IOException: " + ex.getMessage());
         }
@@ -97,4 +405,11 @@ public class StanfordSpeechTaggerAndCounter {
      */
     public void resetWordCount() { MAP.clear(); }
     
+    /**
+     * 
+     * @param k
+     * @return the k most frequent words and their counts, most frequent first
+     */
+    public List<Map.Entry<String, Long>> getTopWords(int k) { return MAP.topK(k); }
+    
 }
@@ -0,0 +1,457 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedInputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.Iterator;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.io.File;
+
+/**
+ * TagCache - a content addressed cache of tagged texts, so a paragraph that is
+ * seen again (in another revision or category) is not tagged again.
+ * 
+ * The key of a text is the SHA-256 of the tagger model identity and the text,
+ * so the entries of another model are never returned. The entries are appended
+ * to segment files in the cache directory, tags-0000000.seg, tags-0000001.seg
+ * and so on, rather than written to a file each. All values are big endian, a
+ * segment starts with a header of two ints (the magic number and the format
+ * version) followed by the entries, each one the 32 bytes of the key, the int
+ * length and CRC-32 of the tagged text and the UTF-8 bytes of the text.
+ * 
+ * The total size of the segments is kept under a bound by deleting the oldest
+ * segment, an entry that is found in any segment but the one being appended to
+ * is appended again, so the entries in use are never in the oldest segments.
+ * The order of use survives a restart through the order of the segments, which
+ * are read in order when the cache is opened, a later entry of a key replacing
+ * an earlier one. The most recently used entries can also be kept in memory,
+ * the hot tier, which saves reading their segments.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class TagCache implements Closeable {
+    
+    static final int MAGIC = 0x54414743;    // "TAGC"
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int ENTRY_HEADER = 40;
+    
+    private static final String PREFIX = "tags-";
+    private static final String EXTENSION = ".seg";
+    private static final long SEGMENT_SIZE = 1 << 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    /**
+     * Where an entry is, its segment and the offset of the entry in it.
+     */
+    private static final class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+    
+        private Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * LruMap - a map in the order of use that holds at most its capacity.
+     */
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 3194725613108259841L;
+        private final int capacity;
+    
+        private LruMap(int capacity) {
+            super(1024, 0.75f, true);
+            this.capacity = capacity;
+        }
+    
+        @Override
+        protected boolean removeEldestEntry(Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+    
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentSize;
+    private final int hotEntries;
+    private final LinkedHashMap<String, Location> DISK; // key -> entry, LRU order
+    private final LruMap<String, String> HOT;           // key -> tagged, LRU order
+    private final TreeMap<Integer, FileChannel> SEGMENTS = new TreeMap<>();
+    private long bytes;
+    private FileChannel output;         // the segment appended to, null before one
+    private int active = -1;            // its number
+    private int next;                   // the number of the next segment
+    private long position;              // the end of the segment appended to
+    
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    /**
+     * Opens the cache in the directory, the entries already in it are kept in
+     * the order of their last use.
+     * 
+     * @param dir the cache directory, created when missing
+     * @param maxBytes the bound of the total size of the entries on the disk
+     * @param hotEntries the number of entries kept in memory, 0 for none
+     */
+    public TagCache(String dir, long maxBytes, int hotEntries) {
+        this.directory = new File(dir);
+        this.maxBytes = maxBytes;
+        // at least a few segments fit the bound, so evicting one frees a part
+        this.segmentSize = Math.max(Math.min(SEGMENT_SIZE, maxBytes / 8), BUFFER_SIZE);
+        this.hotEntries = hotEntries;
+        this.DISK = new LinkedHashMap<>(1024, 0.75f, true);
+        this.HOT = new LruMap<>(hotEntries);
+        directory.mkdirs();
+        File[] files = directory.listFiles((parent, name) -> name.startsWith(PREFIX)
+                && name.endsWith(EXTENSION));
+        int[] numbers = new int[files == null ? 0 : files.length];
+        for (int i = 0; i < numbers.length; i++) {
+            String name = files[i].getName();
+            try {
+                numbers[i] = Integer.parseInt(name.substring(PREFIX.length(),
+                        name.length() - EXTENSION.length()));
+            } catch (NumberFormatException ex) {
+                numbers[i] = -1;
+            }
+        }
+        Arrays.sort(numbers);
+        for (int number : numbers) {
+            if (number < 0) continue;
+            openSegment(number);
+            next = number + 1;
+        }
+        evict();
+    }
+    
+    /**
+     * 
+     * @param modelIdentity identifies the tagger model the text is tagged with
+     * @param text
+     * @return the key of the text, the hex SHA-256 of the identity and text
+     */
+    public static String key(String modelIdentity, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelIdentity.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return toHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);    // every JVM has SHA-256
+        }
+    }
+    
+    /**
+     * 
+     * @param key
+     * @return the cached tagged text of the key, null when it is not cached
+     */
+    public String get(String key) {
+        Location location;
+        synchronized (this) {
+            location = DISK.get(key);
+            String tagged = HOT.get(key);
+            if (tagged != null) {
+                refresh(key, tagged);
+                hotHits.increment();
+                return tagged;
+            }
+            if (location == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        try {
+            String tagged = read(key, location);
+            synchronized (this) {
+                if (hotEntries > 0) HOT.put(key, tagged);
+                refresh(key, tagged);
+            }
+            diskHits.increment();
+            return tagged;
+        } catch (IOException ex) {
+            // evicted by another thread in the meantime, or corrupt
+            synchronized (this) {
+                DISK.remove(key, location);
+            }
+            misses.increment();
+            return null;
+        }
+    }
+    
+    /**
+     * Caches the tagged text under the key, evicting the least recently used
+     * entries when the cache is over its bound.
+     * 
+     * @param key
+     * @param tagged
+     */
+    public void put(String key, String tagged) {
+        byte[] content = tagged.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            try {
+                append(key, content);
+            } catch (IOException ex) {
+                System.err.println("IOException: " + ex.getMessage());
+                return;
+            }
+            if (hotEntries > 0) HOT.put(key, tagged);
+            evict();
+        }
+    }
+    
+    /**
+     * 
+     * @return the fraction of the lookups found in the cache, in memory or on
+     *      the disk
+     */
+    public double getHitRate() {
+        long hits = hotHits.sum() + diskHits.sum();
+        long lookups = hits + misses.sum();
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+    
+    /**
+     * Closes the segments, the cache is not used after.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : SEGMENTS.values()) channel.close();
+        SEGMENTS.clear();
+        output = null;
+        DISK.clear();
+        HOT.clear();
+    }
+    
+    /**
+     * 
+     * @return the hit and miss report of the cache
+     */
+    @Override
+    public String toString() {
+        long hot = hotHits.sum(), disk = diskHits.sum(), miss = misses.sum();
+        synchronized (this) {
+            return String.format("TagCache %s: %d entries, %d bytes, hits %d (memory %d,"
+                    + " disk %d), misses %d, hit rate %.1f%%", directory, DISK.size(),
+                    bytes, hot + disk, hot, disk, miss, 100 * getHitRate());
+        }
+    }
+    
+    /**
+     * Opens a segment left by an earlier run and reads the keys of its entries,
+     * the entries after a write that was cut short are left out. A segment that
+     * can not be read is deleted.
+     * 
+     * @param number
+     */
+    private void openSegment(int number) {
+        File file = fileOf(number);
+        long size = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE))) {
+            if (size < HEADER || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not A Tag Cache Segment: " + file);
+            }
+            byte[] key = new byte[ENTRY_HEADER - 8];
+            for (long offset = HEADER; offset + ENTRY_HEADER <= size; ) {
+                in.readFully(key);
+                int length = in.readInt();
+                in.readInt();
+                if (length < 0 || offset + ENTRY_HEADER + length > size) break;
+                for (int skip = length; skip > 0; ) {
+                    int skipped = in.skipBytes(skip);
+                    if (skipped <= 0) throw new IOException("Truncated Segment: " + file);
+                    skip -= skipped;
+                }
+                DISK.put(toHex(key), new Location(number, offset, length));
+                offset += ENTRY_HEADER + length;
+            }
+            SEGMENTS.put(number, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+            bytes += size;
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+            DISK.values().removeIf(location -> location.segment == number);
+            file.delete();
+        }
+    }
+    
+    /**
+     * Appends the entry to the active segment, a new segment is started when
+     * there is none or the active one is full. Called holding the lock.
+     * 
+     * @param key
+     * @param content the tagged text
+     * @throws IOException
+     */
+    private void append(String key, byte[] content) throws IOException {
+        if (output == null || position >= segmentSize) {
+            output = FileChannel.open(fileOf(next).toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            active = next++;
+            SEGMENTS.put(active, output);
+            position = 0;
+            write(ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER + content.length);
+        entry.put(toBytes(key)).putInt(content.length).putInt((int) crc.getValue());
+        entry.put(content);
+        long offset = position;
+        write(entry);
+        DISK.put(key, new Location(active, offset, content.length));
+    }
+    
+    /**
+     * Writes the buffer at the end of the segment appended to.
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer, position + buffer.position());
+        }
+        position += buffer.limit();
+        bytes += buffer.limit();
+    }
+    
+    /**
+     * Appends an entry that was found in an older segment again, so it is not
+     * evicted with that segment. Called holding the lock.
+     */
+    private void refresh(String key, String tagged) {
+        Location location = DISK.get(key);
+        if (location != null && location.segment == active) return;
+        try {
+            append(key, tagged.getBytes(StandardCharsets.UTF_8));
+            evict();
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 
+     * @param key
+     * @param location
+     * @return the tagged text of the entry
+     * @throws IOException when the segment was evicted or the entry is corrupt
+     */
+    private String read(String key, Location location) throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            channel = SEGMENTS.get(location.segment);
+        }
+        if (channel == null) throw new IOException("Evicted: " + key);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER + location.length);
+        while (entry.hasRemaining()) {
+            if (channel.read(entry, location.offset + entry.position()) < 0) {
+                throw new IOException("Truncated Segment: " + fileOf(location.segment));
+            }
+        }
+        byte[] stored = new byte[ENTRY_HEADER - 8];
+        entry.flip();
+        entry.get(stored);
+        int length = entry.getInt();
+        int checksum = entry.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), ENTRY_HEADER, location.length);
+        if (!Arrays.equals(stored, toBytes(key)) || length != location.length
+                || checksum != (int) crc.getValue()) {
+            throw new IOException("Corrupt Entry: " + key);
+        }
+        return new String(entry.array(), ENTRY_HEADER, length, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Deletes the oldest segments until the cache is in its bound, the segment
+     * appended to is kept. Called holding the lock.
+     */
+    private void evict() {
+        while (bytes > maxBytes && !SEGMENTS.isEmpty()
+                && SEGMENTS.firstKey() != active) {
+            Entry<Integer, FileChannel> oldest = SEGMENTS.pollFirstEntry();
+            int number = oldest.getKey();
+            File file = fileOf(number);
+            bytes -= file.length();
+            try {
+                oldest.getValue().close();
+            } catch (IOException ex) {
+                System.err.println("IOException: " + ex.getMessage());
+            }
+            file.delete();
+            Iterator<Entry<String, Location>> entries = DISK.entrySet().iterator();
+            while (entries.hasNext()) {
+                Entry<String, Location> entry = entries.next();
+                if (entry.getValue().segment == number) {
+                    HOT.remove(entry.getKey());
+                    entries.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @param number
+     * @return the file of the segment
+     */
+    private File fileOf(int number) {
+        return new File(directory, String.format(PREFIX + "%07d" + EXTENSION, number));
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    private static byte[] toBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedInputStream;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+import java.nio.channels.Channels;
+import java.io.DataInputStream;
+import java.nio.MappedByteBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.io.Closeable;
+
+/**
+ * TaggedTextSegment - a sealed segment file of a TaggedTextStore.
+ * 
+ * All values are big endian, the file starts with a header of two ints (the
+ * magic number and the format version) followed by the tagged texts, each one
+ * an int length and the UTF-8 bytes of the text, then the index (the long
+ * offset of every text) and a trailer of the long offset of the index, the int
+ * number of texts and the magic number again. The texts can be read one after
+ * the other from the file, or found by their index, and the whole segment can
+ * be memory mapped instead of read.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class TaggedTextSegment implements Closeable {
+    
+    static final int MAGIC = 0x54545347;    // "TTSG"
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int TRAILER = 16;
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final String filename;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;  // null when the segment is read
+    private final long[] offsets;
+    
+    /**
+     * Opens the segment and reads its index.
+     * 
+     * @param filename
+     * @param map true to memory map the segment rather than read it
+     * @throws IOException when the file is not a sealed segment
+     */
+    public TaggedTextSegment(String filename, boolean map) throws IOException {
+        this.filename = filename;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER + TRAILER) {
+                throw new IOException("Not A Tagged Text Segment: " + filename);
+            }
+            ByteBuffer header = readFully(0, HEADER);
+            ByteBuffer trailer = readFully(size - TRAILER, TRAILER);
+            long index = trailer.getLong();
+            int count = trailer.getInt();
+            if (header.getInt(0) != MAGIC || trailer.getInt() != MAGIC) {
+                throw new IOException("Not A Tagged Text Segment: " + filename);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported Segment Version "
+                        + header.getInt(4) + ": " + filename);
+            }
+            if (count < 0 || index < HEADER || index + 8L * count != size - TRAILER) {
+                throw new IOException("Corrupt Tagged Text Segment: " + filename);
+            }
+            offsets = new long[count];
+            readFully(index, 8 * count).asLongBuffer().get(offsets);
+            if (map && size > Integer.MAX_VALUE) {
+                throw new IOException("Segment Too Large To Map: " + filename);
+            }
+            mapped = map ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * 
+     * @return the number of tagged texts in the segment
+     */
+    public int size() { return offsets.length; }
+    
+    /**
+     * 
+     * @param i
+     * @return the i-th tagged text of the segment
+     * @throws IOException
+     */
+    public String get(int i) throws IOException {
+        if (mapped != null) {
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) offsets[i]);
+            byte[] bytes = new byte[view.getInt()];
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        int length = readFully(offsets[i], 4).getInt();
+        return new String(readFully(offsets[i] + 4, length).array(),
+                StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Hands every tagged text of the segment to the sink in the order they were
+     * appended, reading the segment from front to back.
+     * 
+     * @param sink
+     * @throws IOException
+     */
+    public void forEach(Consumer<String> sink) throws IOException {
+        if (mapped != null) {
+            ByteBuffer view = mapped.duplicate();
+            view.position(HEADER);
+            for (int i = 0; i < offsets.length; i++) {
+                byte[] bytes = new byte[view.getInt()];
+                view.get(bytes);
+                sink.accept(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return;
+        }
+        // the stream is not closed, that would close the channel of the segment
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(HEADER)), BUFFER_SIZE));
+        for (int i = 0; i < offsets.length; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            sink.accept(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+    
+    /**
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException { channel.close(); }
+    
+    /**
+     * 
+     * @param position
+     * @param length
+     * @return a buffer of the length bytes of the file at the position
+     * @throws IOException
+     */
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated Tagged Text Segment: " + filename);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,246 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedOutputStream;
+import java.nio.channels.FileChannel;
+import java.io.DataOutputStream;
+import java.nio.channels.Channels;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.io.File;
+
+/**
+ * TaggedTextStore - an append only store of tagged texts in a directory.
+ * 
+ * The tagged texts are packed into segment files (see TaggedTextSegment) named
+ * segment-0000000.seg, segment-0000001.seg and so on, instead of a file of its
+ * own for every text. A segment is written to a ".open" file through a buffer
+ * and is sealed once it reaches SEGMENT_SIZE bytes or the store is closed, it
+ * is then given its index, forced to the disk and renamed, so only complete
+ * segments ever carry the ".seg" name. Sealed segments are never changed, every
+ * store opened on the directory appends to a new segment.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class TaggedTextStore implements Closeable {
+    
+    public static final String EXTENSION = ".seg";
+    private static final String OPEN_EXTENSION = ".open";
+    private static final String PREFIX = "segment-";
+    private static final long SEGMENT_SIZE = 1 << 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final File directory;
+    private DataOutputStream out;       // null when no segment is open
+    private FileChannel channel;
+    private File segment;               // the open segment
+    private long position;
+    private long[] offsets = new long[1024];
+    private int count;
+    
+    /**
+     * 
+     * @param dir the directory of the segments, it has to exist
+     */
+    public TaggedTextStore(String dir) {
+        directory = new File(dir);
+    }
+    
+    /**
+     * Appends the tagged text to the open segment, a segment is opened when
+     * there is none and the segment is sealed when it is full.
+     * 
+     * @param tagged
+     * @throws IOException
+     */
+    public synchronized void append(String tagged) throws IOException {
+        if (out == null) openSegment();
+        byte[] bytes = tagged.getBytes(StandardCharsets.UTF_8);
+        if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+        offsets[count++] = position;
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        position += 4 + bytes.length;
+        if (position >= SEGMENT_SIZE) sealSegment();
+    }
+    
+    /**
+     * Seals the open segment, if any, so everything appended so far is on the
+     * disk, the next append opens a new segment.
+     * 
+     * @throws IOException
+     */
+    public synchronized void seal() throws IOException {
+        if (out != null) sealSegment();
+    }
+    
+    /**
+     * Seals the open segment, if any.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException { seal(); }
+    
+    /**
+     * 
+     * @return the file names (without the directory) of the sealed segments in
+     *      the order they were written
+     */
+    public List<String> getSegmentFileNames() {
+        List<String> names = new ArrayList<>();
+        String[] files = directory.list();
+        if (files == null) return names;
+        for (String name : files) {
+            if (name.startsWith(PREFIX) && name.endsWith(EXTENSION)) names.add(name);
+        }
+        names.sort(null);
+        return names;
+    }
+    
+    /**
+     * Deletes every segment of the store, sealed or not, used before all texts
+     * are tagged again.
+     */
+    public synchronized void clear() {
+        String[] files = directory.list();
+        if (files == null) return;
+        for (String name : files) {
+            if (name.startsWith(PREFIX)
+                    && (name.endsWith(EXTENSION) || name.endsWith(OPEN_EXTENSION))) {
+                new File(directory, name).delete();
+            }
+        }
+    }
+    
+    /**
+     * Keeps the first segments of the store and deletes the rest, used to go
+     * back to a checkpoint, when the segments written after it are unaccounted.
+     * 
+     * @param segments the number of sealed segments to keep
+     */
+    public synchronized void retain(int segments) {
+        List<String> names = getSegmentFileNames();
+        for (int i = segments; i < names.size(); i++) {
+            new File(directory, names.get(i)).delete();
+        }
+        String[] files = directory.list();
+        if (files == null) return;
+        for (String name : files) {
+            if (name.startsWith(PREFIX) && name.endsWith(OPEN_EXTENSION)) {
+                new File(directory, name).delete();
+            }
+        }
+    }
+    
+    /**
+     * Checks the first segments of the store before a checkpoint is trusted,
+     * every one of them has to be there and open as a sealed segment, with its
+     * header, index and trailer intact (see TaggedTextSegment).
+     * 
+     * @param segments the number of sealed segments to check
+     * @return true when the first segments are intact
+     */
+    public synchronized boolean isIntact(int segments) {
+        List<String> names = getSegmentFileNames();
+        if (names.size() < segments) return false;
+        for (int i = 0; i < segments; i++) {
+            File file = new File(directory, names.get(i));
+            try {
+                // the segment is checked as it is opened
+                new TaggedTextSegment(file.getPath(), false).close();
+            } catch (IOException ex) {
+                System.err.println("IOException: " + ex.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Opens the segment numbered after the last one of the directory.
+     * 
+     * @throws IOException
+     */
+    private void openSegment() throws IOException {
+        int number = 0;
+        String[] files = directory.list();
+        if (files != null) {
+            for (String name : files) {
+                if (!name.startsWith(PREFIX)) continue;
+                int dot = name.indexOf('.');
+                try {
+                    int taken = Integer.parseInt(name.substring(PREFIX.length(),
+                            dot < 0 ? name.length() : dot));
+                    number = Math.max(number, taken + 1);
+                } catch (NumberFormatException ex) {
+                    // not a segment of the store
+                }
+            }
+        }
+        String name = Integer.toString(number); // all filenames same length
+        while (name.length() < 7) name = '0' + name;
+        segment = new File(directory, PREFIX + name + OPEN_EXTENSION);
+        channel = FileChannel.open(segment.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        out = new DataOutputStream(new BufferedOutputStream(PipelineMetrics.counting(
+                Channels.newOutputStream(channel)), BUFFER_SIZE));
+        out.writeInt(TaggedTextSegment.MAGIC);
+        out.writeInt(TaggedTextSegment.VERSION);
+        position = TaggedTextSegment.HEADER;
+        count = 0;
+    }
+    
+    /**
+     * Writes the index and the trailer, forces the segment to the disk and gives
+     * it its final name.
+     * 
+     * @throws IOException
+     */
+    private void sealSegment() throws IOException {
+        try {
+            for (int i = 0; i < count; i++) out.writeLong(offsets[i]);
+            out.writeLong(position);
+            out.writeInt(count);
+            out.writeInt(TaggedTextSegment.MAGIC);
+            out.flush();
+            channel.force(true);
+        } finally {
+            out.close();
+            out = null;
+        }
+        String open = segment.getName();
+        String sealed = open.substring(0, open.length() - OPEN_EXTENSION.length())
+                + EXTENSION;
+        Files.move(segment.toPath(), Paths.get(directory.getPath(), sealed),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+/**
+ * TaggedTokenReader - reads the word_TAG tokens of the tagged texts.
+ * 
+ * The tokens of a tagged text (separated by single spaces, like split(" ")) are
+ * handed out as ranges of its char array, so no String is created for a token
+ * unless it is accepted. The tagged texts come from the segments of a
+ * TaggedTextStore, or straight from the tagger in the streaming mode.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class TaggedTokenReader {
+    
+    /**
+     * Receives every token of a text as a range of the char array, separator
+     * is the index of the last '_' of the token (the tag follows it) or -1 when
+     * the token has no tag. The range is only valid during the call.
+     */
+    public interface TokenHandler {
+        void token(char[] chars, int start, int separator, int end);
+    }
+    
+    /**
+     * Decides which tags are turned into model terms, the tag is the range of
+     * the char array following the last '_' of the token.
+     */
+    public interface TagFilter {
+        boolean accept(char[] chars, int tagStart, int tagEnd);
+    
+        /**
+         * 
+         * @param tags
+         * @return a filter accepting exactly the given tags
+         */
+        static TagFilter of(String... tags) {
+            return (chars, tagStart, tagEnd) -> {
+                for (String tag : tags) {
+                    if (regionEquals(chars, tagStart, tagEnd, tag)) return true;
+                }
+                return false;
+            };
+        }
+    }
+    
+    /**
+     * Hands every token of the tagged text to the handler in order.
+     * 
+     * @param tagged the tagged text, as returned by the tagger
+     * @param handler
+     */
+    public static void scan(String tagged, TokenHandler handler) {
+        char[] array = tagged.toCharArray();
+        int start = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == ' ') {
+                emit(handler, array, start, i);
+                start = i + 1;
+            }
+        }
+        emit(handler, array, start, array.length);
+    }
+    
+    /**
+     * 
+     * @param handler
+     * @param array
+     * @param start
+     * @param end
+     */
+    private static void emit(TokenHandler handler, char[] array, int start, int end) {
+        if (start == end) return;
+        int separator = end - 1;
+        while (separator >= start && array[separator] != '_') separator--;
+        if (separator < start) separator = -1;
+        handler.token(array, start, separator, end);
+    }
+    
+    /**
+     * 
+     * @param chars
+     * @param start
+     * @param end
+     * @param text
+     * @return true when the range holds exactly the text
+     */
+    static boolean regionEquals(char[] chars, int start, int end, String text) {
+        if (end - start != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (chars[start + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+}
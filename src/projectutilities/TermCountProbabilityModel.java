@@ -17,19 +17,38 @@
  */
 package projectutilities;
 
-import java.io.FileNotFoundException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.ObjectInputStream;
-import java.io.FileOutputStream;
 import java.io.FileInputStream;
 import java.io.Serializable;
 import java.util.Map.Entry;
+import java.util.stream.IntStream;
+import java.util.Collection;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
+ * TermCountProbabilityModel - the count and probability of every term seen.
+ * 
+ * The terms are stored in a TermTable, which keeps the counts and probabilities
+ * in primitive arrays indexed by term id rather than in an object per term.
+ * 
+ * An approximate model (created with the memory it may take) keeps the counts
+ * in a TermSketch instead, so its memory stays the same whatever the number of
+ * distinct terms. Its counts are estimates, never below the true count and with
+ * probability above 99% at most getErrorBound above it, its model size is an
+ * estimate of about 0.8% standard error, and its probabilities are computed for
+ * the heavy hitters, the terms of the highest counts, which are the terms it is
+ * scored and saved with. Approximate models can only be merged with each other.
+ * 
+ * Models are saved in the binary TermModelFormat, which can also be used in
+ * place through a MappedTermCountProbabilityModel. The Java serialized form is
+ * still the original HashMap of CountProbabilityPair, and the model files that
+ * were written with Java serialization are still read by the file constructor.
  * 
  * @author W. Hatfield
  * @author U. Jaimini
@@ -37,10 +56,24 @@ import java.util.Set;
  */
 public class TermCountProbabilityModel implements Serializable {
     
+    private static final long serialVersionUID = 7577836993593179126L;
+    
+    /**
+     * The serialized fields, matching the fields of the original model class,
+     * whose int totalTermCount is kept for the readers of the original class.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("MODEL", HashMap.class),
+        new ObjectStreamField("totalTermCount", Integer.TYPE),
+        new ObjectStreamField("totalTermCountLong", Long.TYPE)
+    };
+    
     /**
-     * CountProbabilityPair - structure for multiple primitive data type access.
+     * CountProbabilityPair - structure for multiple primitive data type access,
+     * now only used as the serialized form of the entries of the model.
      */
-    private class CountProbabilityPair implements Serializable {
+    private static class CountProbabilityPair implements Serializable {
+        private static final long serialVersionUID = 2448845280443416592L;
         public double prob; // probability of the term in the dataset
         public int count;   // count of the term in the dataset
         @Override
@@ -52,49 +85,75 @@ public class TermCountProbabilityModel implements Serializable {
     /**
      * Primary data structure for storing terms, counts, and probabilities.
      */
-    private final HashMap<String, CountProbabilityPair> MODEL;
+    private transient TermTable MODEL;
+    
+    /**
+     * The counts of an approximate model, null for an exact model.
+     */
+    private transient TermSketch sketch;
+    
+    /**
+     * The vocab of the last computeTheTermProbabilites, -1 before.
+     */
+    private transient int vocab = -1;
     
     /**
      * Convenient counter for storing the total number of map entries.
      */
-    private int totalTermCount;
+    private long totalTermCount;
     
     /**
      * Default Constructor - initializes a new empty hashmap and counter.
      */
     public TermCountProbabilityModel() {
-        MODEL = new HashMap<>();
+        MODEL = new TermTable();
+        totalTermCount = 0;
+    }
+    
+    /**
+     * Approximate Model Constructor - the counts are kept in a sketch of the
+     * given memory, whatever the number of distinct terms.
+     * 
+     * @param memoryBytes the memory of the counts, 64 MB (1 << 26) for example
+     */
+    public TermCountProbabilityModel(long memoryBytes) {
+        MODEL = new TermTable();
+        sketch = new TermSketch(memoryBytes);
         totalTermCount = 0;
     }
     
     /**
      * Serialized Model Constructor - generates a new TermCountProbabilityModel
-     * that is constructed from the data stored in the serialized model file.
+     * that is constructed from the data stored in the serialized model file,
+     * which is either a binary model file or a legacy Java serialized model.
      * 
-     * If any errors are encountered during reading the default values are used.
+     * The binary model file is decoded as a stream, so models of any size are
+     * read. A model file that can not be read, in either format, is an error
+     * rather than an empty model.
      * 
      * @param serializedModelFileName serialized model to construct from
+     * @throws IOException when the model file can not be read
      */
-    public TermCountProbabilityModel(String serializedModelFileName) {
-        TermCountProbabilityModel tcpm = null;
-        try {
-            FileInputStream fis = new FileInputStream(serializedModelFileName);
-            ObjectInputStream objReader = new ObjectInputStream(fis);
+    public TermCountProbabilityModel(String serializedModelFileName)
+            throws IOException {
+        if (TermModelFormat.isBinaryModel(serializedModelFileName)) {
+            // a binary model is never read as a legacy model
+            MODEL = new TermTable();
+            totalTermCount = TermModelFormat.read(serializedModelFileName, MODEL);
+            return;
+        }
+        TermCountProbabilityModel tcpm;
+        try (ObjectInputStream objReader = new ObjectInputStream(
+                new FileInputStream(serializedModelFileName))) {
             tcpm = (TermCountProbabilityModel) objReader.readObject();
-        } catch (ClassNotFoundException ex) {
-            System.err.println("ClassNotFoundException: " + ex.getMessage());
-        }catch (FileNotFoundException ex) {
-            System.err.println("FileNotFoundException: " + ex.getMessage());
-        } catch (IOException ex) {
-            System.err.println("IOException: " + ex.getMessage());
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new IOException("Not A Model File @ " + serializedModelFileName, ex);
         }
-        if (tcpm != null) {
-            this.totalTermCount = tcpm.totalTermCount;
-            this.MODEL = tcpm.MODEL;
-        } else {
-            MODEL = new HashMap<>();
-            totalTermCount = 0;
+        if (tcpm == null || tcpm.MODEL == null) {
+            throw new IOException("Not A Model File @ " + serializedModelFileName);
         }
+        this.totalTermCount = tcpm.totalTermCount;
+        this.MODEL = tcpm.MODEL;
     }
     
     /**
@@ -108,10 +167,11 @@ public class TermCountProbabilityModel implements Serializable {
      */
     public double getClassProbability(TermCountProbabilityModel tcpm, int vocab) {
         double probability = 1.0;
-        for (Entry<String, CountProbabilityPair> entry : tcpm.MODEL.entrySet()) {
-            if (this.MODEL.containsKey(entry.getKey())) {
-                double thisTermProb = this.MODEL.get(entry.getKey()).prob;
-                double tcpmTermProb = entry.getValue().prob;
+        for (int id = 0; id < tcpm.MODEL.size(); id++) {
+            int thisId = this.MODEL.find(tcpm.MODEL.term(id));
+            if (thisId >= 0) {
+                double thisTermProb = this.MODEL.prob(thisId);
+                double tcpmTermProb = tcpm.MODEL.prob(id);
                 double termProbability = thisTermProb * tcpmTermProb;
                 probability = probability * termProbability;
             } else {
@@ -122,25 +182,75 @@ public class TermCountProbabilityModel implements Serializable {
         return probability;
     }
     
+    /**
+     * Log space version of getClassProbability - returns the natural logarithm
+     * of the probability of the passed model, which unlike the product of the
+     * raw probabilities does not underflow to zero for realistic documents.
+     * 
+     * The log probabilities of the terms are computed once by the function
+     * computeTheTermProbabilites (both models must have been computed), and the
+     * shared terms are found by iterating over the smaller of the two models,
+     * every other term of the passed model counts as unseen in this model.
+     * 
+     * @param tcpm the model of the document to score
+     * @param vocab
+     * @return log of the probability, comparable between class models
+     */
+    public double getLogClassProbability(TermCountProbabilityModel tcpm, int vocab) {
+        TermTable smaller = this.MODEL, larger = tcpm.MODEL;
+        if (larger.size() < smaller.size()) {
+            smaller = tcpm.MODEL;
+            larger = this.MODEL;
+        }
+        double logProbability = 0.0;
+        int shared = 0;
+        for (int id = 0; id < smaller.size(); id++) {
+            int otherId = larger.find(smaller.term(id));
+            if (otherId >= 0) {
+                logProbability += smaller.logProb(id) + larger.logProb(otherId);
+                shared++;
+            }
+        }
+        double logUnseen = -Math.log((double) vocab + totalTermCount);
+        return logProbability + (tcpm.MODEL.size() - shared) * logUnseen;
+    }
+    
+    /**
+     * Scores every document against every class model in one call, the rows of
+     * the result are the documents and the columns the classes, each entry is
+     * the getLogClassProbability of the document for the class. The documents
+     * are scored in parallel.
+     * 
+     * @param documents
+     * @param classes
+     * @param vocab
+     * @return 
+     */
+    public static double[][] getLogClassProbabilities(
+            List<TermCountProbabilityModel> documents,
+            List<TermCountProbabilityModel> classes, int vocab) {
+        double[][] scores = new double[documents.size()][classes.size()];
+        IntStream.range(0, documents.size()).parallel().forEach(d -> {
+            TermCountProbabilityModel document = documents.get(d);
+            for (int c = 0; c < classes.size(); c++) {
+                scores[d][c] = classes.get(c).getLogClassProbability(document, vocab);
+            }
+        });
+        return scores;
+    }
+    
     /**
      * Writes the current state of the calling object out to disk, and uses the
-     * String argument as the PATH TO and NAME OF 'this' serialized object.
+     * String argument as the PATH TO and NAME OF 'this' serialized object. The
+     * model is written straight from the TermTable in the binary TermModelFormat.
      * 
      * @param outputFileName 
      */
     public void serializeTermCountProbabilityModel(String outputFileName) {
-        TermCountProbabilityModel tcpm = new TermCountProbabilityModel();
-        tcpm.totalTermCount = this.totalTermCount;
-        tcpm.MODEL.putAll(this.MODEL);
         try {
-            FileOutputStream fos = new FileOutputStream(outputFileName);
-            ObjectOutputStream objWriter = new ObjectOutputStream(fos);
-            objWriter.writeObject(tcpm);    // write the object
-            objWriter.flush();              // flush the buffer
-            objWriter.close();              // close the writer
+            TermModelFormat.write(MODEL, totalTermCount, Math.max(vocab, 0),
+                    outputFileName);
             return;                         // exit the function
-        } catch (FileNotFoundException ex) {
-            System.err.println("FileNotFoundException: " + ex.getMessage());
         } catch (IOException ex) {
             System.err.println("IOException: " + ex.getMessage());
             System.err.println(ex.toString());
@@ -156,52 +266,124 @@ public class TermCountProbabilityModel implements Serializable {
      * @param term the string to add to the model or increment the counter of.
      */
     public void pushTerm(String term) {
-        if (MODEL.containsKey(term)) {
-            MODEL.get(term).count++;
+        if (sketch != null) {
+            sketch.add(term, 1);
         } else {
-            CountProbabilityPair cpp = new CountProbabilityPair();
-            cpp.count = 1;
-            cpp.prob = -1;
-            MODEL.put(term, cpp);
+            MODEL.increment(term);
         }
         totalTermCount++;
     }
     
     /**
-     * Iterates through all elements in the model (HashMap) and computes the
+     * Adds the counts of the passed model to this model, so that models trained
+     * separately (on shards of the data or on new data) can be combined. The
+     * probabilities are stale afterwards and must be computed again with the
+     * function computeTheTermProbabilites.
+     * 
+     * @param tcpm the model to add to this one, it is not modified
+     */
+    public void merge(TermCountProbabilityModel tcpm) {
+        if (tcpm.sketch != null) {
+            if (sketch == null) {
+                throw new IllegalArgumentException("Approximate Model Merged Into Exact Model");
+            }
+            sketch.merge(tcpm.sketch);
+        } else {
+            TermTable other = tcpm.MODEL;
+            for (int id = 0; id < other.size(); id++) {
+                if (sketch != null) {
+                    sketch.add(other.term(id), other.count(id));
+                } else {
+                    MODEL.put(other.term(id), other.count(id), -1);
+                }
+            }
+        }
+        totalTermCount += tcpm.totalTermCount;
+    }
+    
+    /**
+     * Iterates through all elements in the model (TermTable) and computes the
      * probability of the term (key) in the element by dividing the individual
      * term count over the total term count, then stores the result in model.
+     * The model of an approximate model becomes the table of its heavy hitters.
      */
     public void computeTheTermProbabilites(int vocab) {
-        for (Entry<String, CountProbabilityPair> entry : MODEL.entrySet()) {
-            double termCount = (double) entry.getValue().count;
+        this.vocab = vocab;
+        if (sketch != null) MODEL = sketch.getHeavyHitters();
+        for (int id = 0; id < MODEL.size(); id++) {
+            double termCount = (double) MODEL.count(id);
             double probability = (termCount + 1) / (totalTermCount + vocab);
-            entry.getValue().prob = probability;
+            MODEL.setProb(id, probability);
         }
     }
     
     /**
-     * Gets the set of all words (keys) in this model.
+     * Gets the set of all words (keys) in this model, the heavy hitters of an
+     * approximate model.
      * 
      * @return all keys in this model
      */
     public Set<String> getVocabulary() {
+        TermTable table = sketch != null ? sketch.getHeavyHitters() : MODEL;
         HashSet<String> vocabulary = new HashSet<>();
-        vocabulary.addAll(MODEL.keySet());
+        for (int id = 0; id < table.size(); id++) {
+            vocabulary.add(table.term(id));
+        }
         return vocabulary;
     }
     
+    /**
+     * The vocab of the models, the number of distinct terms over all of them, is
+     * the size of the vocabulary the probabilities of the models are smoothed by.
+     * 
+     * When any of the models is approximate the size is estimated with the
+     * HyperLogLog of the sketches, the terms of the exact models added to it.
+     * 
+     * @param models
+     * @return the number of distinct terms in the models
+     */
+    public static int getVocabularySize(Collection<TermCountProbabilityModel> models) {
+        if (models.stream().anyMatch(TermCountProbabilityModel::isApproximate)) {
+            byte[] registers = TermSketch.newRegisters();
+            for (TermCountProbabilityModel model : models) {
+                if (model.sketch != null) {
+                    TermSketch.mergeRegisters(registers, model.sketch.getRegisters());
+                } else {
+                    for (int id = 0; id < model.MODEL.size(); id++) {
+                        TermSketch.addToRegisters(registers, model.MODEL.term(id));
+                    }
+                }
+            }
+            return (int) Math.min(TermSketch.estimateDistinct(registers), Integer.MAX_VALUE);
+        }
+        HashSet<String> vocabulary = new HashSet<>();
+        for (TermCountProbabilityModel model : models) {
+            for (int id = 0; id < model.MODEL.size(); id++) {
+                vocabulary.add(model.MODEL.term(id));
+            }
+        }
+        return vocabulary.size();
+    }
+    
     /**
      * Returns the probability of the the term in the data set, if the function
      * computeTheTermProbabilites() has not been called the default value -1 is
      * returned, and if the term is not present in the data set 0 is returned.
+     * The probability of any term of an approximate model is estimated from its
+     * estimated count.
      * 
      * @param term
      * @return 
      */
     public double getTermProbability(String term) {
-        if (MODEL.containsKey(term)) {
-            double prob = MODEL.get(term).prob;
+        if (sketch != null) {
+            if (vocab < 0) return -1;
+            long count = sketch.estimate(term);
+            return count == 0 ? 0 : (count + 1.0) / (totalTermCount + vocab);
+        }
+        int id = MODEL.find(term);
+        if (id >= 0) {
+            double prob = MODEL.prob(id);
             return prob;
         } else {
             return 0;
@@ -209,14 +391,32 @@ public class TermCountProbabilityModel implements Serializable {
     }
     
     /**
-     * Returns the count of the term in the data set, zero if it is not present.
+     * Returns the count of the term in the data set, zero if it is not present,
+     * a count above Integer.MAX_VALUE is returned as Integer.MAX_VALUE, see
+     * getTermCountLong.
      * 
      * @param term
      * @return 
      */
     public int getTermCount(String term) {
-        if (MODEL.containsKey(term)) {
-            int termCount = MODEL.get(term).count;
+        return (int) Math.min(getTermCountLong(term), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Returns the count of the term in the data set, zero if it is not present.
+     * The count of an approximate model is an estimate, never below the true
+     * count and at most getErrorBound above it with probability above 99%.
+     * 
+     * @param term
+     * @return 
+     */
+    public long getTermCountLong(String term) {
+        if (sketch != null) {
+            return sketch.estimate(term);
+        }
+        int id = MODEL.find(term);
+        if (id >= 0) {
+            long termCount = MODEL.count(id);
             return termCount;
         } else {
             return 0;
@@ -224,24 +424,93 @@ public class TermCountProbabilityModel implements Serializable {
     }
     
     /**
-     * Returns the size of the HashMap structure used as the model.
+     * Returns the number of distinct terms in the model.
      * 
      * @return 
      */
     public int getModelSize() {
+        if (sketch != null) {
+            return (int) Math.min(sketch.getDistinctEstimate(), Integer.MAX_VALUE);
+        }
         int size = MODEL.size();
         return size;
     }
     
+    /**
+     * 
+     * @return true when the counts are estimated by a sketch
+     */
+    public boolean isApproximate() { return sketch != null; }
+    
+    /**
+     * 
+     * @return the most an estimated count exceeds the true count (with
+     *      probability above 99%), 0 for an exact model
+     */
+    public long getErrorBound() { return sketch != null ? sketch.getErrorBound() : 0; }
+    
+    /**
+     * 
+     * @return the storage of the terms, for the scorers of this package
+     */
+    TermTable getTermTable() { return MODEL; }
+    
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Entry<String, CountProbabilityPair> entry : MODEL.entrySet()) {
-            sb.append(entry.getKey());
+        for (int id = 0; id < MODEL.size(); id++) {
+            sb.append(MODEL.term(id));
             sb.append(" => ");
-            sb.append(entry.getValue().toString());
+            sb.append("{C: ").append(MODEL.count(id));
+            sb.append(" && P: ").append(MODEL.prob(id)).append("}");
             sb.append("\n");
         }
         return sb.toString();
     }
+    
+    /**
+     * Writes the model in its original form, a HashMap of CountProbabilityPair
+     * and the total term count, the int counts of the original form are capped
+     * at Integer.MAX_VALUE, the total term count is also written as a long.
+     * 
+     * @param out
+     * @throws IOException 
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        HashMap<String, CountProbabilityPair> map = new HashMap<>(MODEL.size() * 2);
+        for (int id = 0; id < MODEL.size(); id++) {
+            CountProbabilityPair cpp = new CountProbabilityPair();
+            cpp.count = (int) Math.min(MODEL.count(id), Integer.MAX_VALUE);
+            cpp.prob = MODEL.prob(id);
+            map.put(MODEL.term(id), cpp);
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("MODEL", map);
+        fields.put("totalTermCount", (int) Math.min(totalTermCount, Integer.MAX_VALUE));
+        fields.put("totalTermCountLong", totalTermCount);
+        out.writeFields();
+    }
+    
+    /**
+     * Reads the original form of the model back into a TermTable.
+     * 
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException 
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        HashMap<String, CountProbabilityPair> map
+                = (HashMap<String, CountProbabilityPair>) fields.get("MODEL", null);
+        totalTermCount = fields.defaulted("totalTermCountLong")
+                ? fields.get("totalTermCount", 0) : fields.get("totalTermCountLong", 0L);
+        MODEL = new TermTable(map == null ? 0 : map.size());
+        if (map == null) return;
+        for (Entry<String, CountProbabilityPair> entry : map.entrySet()) {
+            CountProbabilityPair cpp = entry.getValue();
+            MODEL.put(entry.getKey(), cpp.count, cpp.prob);
+        }
+    }
 }
@@ -0,0 +1,194 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.stream.IntStream;
+import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TermModelClassifier - scores documents against the trained class models.
+ * 
+ * The class models (the objects, women and men .mdl files) are mapped once and
+ * shared by every call, a document is either raw text, which is normalized as
+ * the texts of the exports were (see WikiTextScanner.normalize) and tagged
+ * first, or text already tagged, and it is turned into a document model of the
+ * same features the class models were trained on. The vocab is the one the
+ * class models were trained with, kept in their files, so no term of a model is
+ * read to open the classifier, and the score of a class is the
+ * getLogClassProbability of the document, the higher the more likely.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class TermModelClassifier {
+    
+    private final List<String> names = new ArrayList<>();
+    private final List<MappedTermCountProbabilityModel> classes = new ArrayList<>();
+    private final StanfordSpeechTaggerAndCounter tagger;
+    private final FeatureExtractor features;
+    private final int vocab;
+    
+    /**
+     * Maps the class models, the name of each class is the key of its model
+     * file and the classes are scored in the order of the map.
+     * 
+     * @param classModelFiles the model file of each class by class name
+     * @param features the features the models were trained on
+     * @param tagger tags the raw texts, or null when only tagged texts are scored
+     * @throws IOException when a model can not be mapped
+     */
+    public TermModelClassifier(Map<String, String> classModelFiles,
+            FeatureExtractor features, StanfordSpeechTaggerAndCounter tagger)
+            throws IOException {
+        for (Map.Entry<String, String> entry : classModelFiles.entrySet()) {
+            names.add(entry.getKey());
+            classes.add(new MappedTermCountProbabilityModel(entry.getValue()));
+        }
+        this.vocab = getVocabularySize(classes);
+        this.features = features;
+        this.tagger = tagger;
+    }
+    
+    /**
+     * The models saved together are all trained with the same vocab, only the
+     * terms of model files that do not keep their vocab are counted.
+     * 
+     * @param models
+     * @return the vocab of the models
+     */
+    private static int getVocabularySize(List<MappedTermCountProbabilityModel> models) {
+        int vocab = 0;
+        for (MappedTermCountProbabilityModel model : models) {
+            if (model.getVocabularySize() == 0) {
+                HashSet<String> vocabulary = new HashSet<>();
+                for (MappedTermCountProbabilityModel m : models) {
+                    vocabulary.addAll(m.getVocabulary());
+                }
+                return vocabulary.size();
+            }
+            vocab = Math.max(vocab, model.getVocabularySize());
+        }
+        return vocab;
+    }
+    
+    /**
+     * 
+     * @return the names of the classes, in the order of the scores
+     */
+    public List<String> getClassNames() { return names; }
+    
+    /**
+     * 
+     * @return the vocab of the class models, the number of distinct features
+     */
+    public int getVocabularySize() { return vocab; }
+    
+    /**
+     * 
+     * @param tagged a tagged text, word_TAG tokens separated by spaces
+     * @return the score of each class, in the order of the class names
+     */
+    public double[] scoreTagged(String tagged) {
+        TermCountProbabilityModel document = new TermCountProbabilityModel();
+        features.extract(tagged, document::pushTerm);
+        document.computeTheTermProbabilites(vocab);
+        double[] scores = new double[classes.size()];
+        for (int c = 0; c < scores.length; c++) {
+            scores[c] = classes.get(c).getLogClassProbability(document, vocab);
+        }
+        return scores;
+    }
+    
+    /**
+     * 
+     * @param text a raw text, it is normalized before it is tagged
+     * @return the score of each class, in the order of the class names
+     */
+    public double[] score(String text) {
+        return scoreTagged(requireTagger().tagNormalizedString(
+                WikiTextScanner.normalize(text)));
+    }
+    
+    /**
+     * Scores the tagged texts in parallel.
+     * 
+     * @param tagged
+     * @return the scores of each text, in the order of the texts
+     */
+    public double[][] scoreTaggedBatch(List<String> tagged) {
+        double[][] scores = new double[tagged.size()][];
+        IntStream.range(0, tagged.size()).parallel()
+                .forEach(d -> scores[d] = scoreTagged(tagged.get(d)));
+        return scores;
+    }
+    
+    /**
+     * Normalizes and tags the raw texts in parallel batches and then scores
+     * them, a text that could not be tagged has null scores.
+     * 
+     * @param texts
+     * @return the scores of each text, in the order of the texts
+     */
+    public double[][] scoreBatch(List<String> texts) {
+        List<String> normalized = new ArrayList<>(texts.size());
+        for (String text : texts) normalized.add(WikiTextScanner.normalize(text));
+        List<String> tagged = requireTagger().tagNormalizedStrings(normalized);
+        double[][] scores = new double[tagged.size()][];
+        IntStream.range(0, tagged.size()).parallel().forEach(d -> {
+            if (tagged.get(d) != null) scores[d] = scoreTagged(tagged.get(d));
+        });
+        return scores;
+    }
+    
+    /**
+     * 
+     * @param scores
+     * @return the name of the class with the highest score
+     */
+    public String best(double[] scores) {
+        int best = 0;
+        for (int c = 1; c < scores.length; c++) {
+            if (scores[c] > scores[best]) best = c;
+        }
+        return names.get(best);
+    }
+    
+    /**
+     * 
+     * @param scores
+     * @return the scores by class name, in the order of the class names
+     */
+    public Map<String, Double> byClassName(double[] scores) {
+        Map<String, Double> named = new LinkedHashMap<>();
+        for (int c = 0; c < scores.length; c++) named.put(names.get(c), scores[c]);
+        return named;
+    }
+    
+    private StanfordSpeechTaggerAndCounter requireTagger() {
+        if (tagger == null) {
+            throw new IllegalStateException("No Tagger, Only Tagged Texts Are Scored");
+        }
+        return tagger;
+    }
+}
@@ -0,0 +1,251 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.nio.channels.FileChannel;
+import java.io.DataOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.EOFException;
+import java.nio.channels.Channels;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * TermModelFormat - the binary file format of a TermCountProbabilityModel.
+ * 
+ * All values are big endian, the file starts with a header of the int magic
+ * number and format version, the long total term count, the int number of
+ * terms n and the int vocab the probabilities were computed with (0 when it is
+ * not known, in the files written before it was kept), followed by the sections
+ * 
+ *      double[n]   the probability of each term
+ *      double[n]   the natural logarithm of the probability of each term
+ *      long[n]     the count of each term
+ *      int[n + 1]  the offset of each term in the dictionary, and its end
+ *      byte[]      the dictionary, the UTF-8 bytes of all terms
+ * 
+ * where the terms are sorted by their (unsigned) UTF-8 bytes, so a term can be
+ * found with a binary search directly on a memory mapped file. The files of the
+ * first version, with a header of four ints (the total term count an int) and
+ * an int count of each term, are still read.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TermModelFormat {
+    
+    static final int MAGIC = 0x5443504D;    // "TCPM"
+    static final int VERSION = 2;
+    static final int HEADER = 24;
+    static final int VERSION_1 = 1;
+    static final int HEADER_1 = 16;
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private TermModelFormat() {}
+    
+    /**
+     * Writes the terms of the table to a temporary file in the binary format,
+     * which then replaces the file by an atomic rename. A model file is never
+     * truncated in place, the processes that have it mapped keep the old file.
+     * 
+     * @param table
+     * @param totalTermCount
+     * @param vocab the vocab of the probabilities of the table, 0 when not known
+     * @param filename
+     * @throws IOException
+     */
+    static void write(TermTable table, long totalTermCount, int vocab,
+            String filename) throws IOException {
+        int n = table.size();
+        byte[][] bytes = new byte[n][];
+        Integer[] order = new Integer[n];
+        for (int id = 0; id < n; id++) {
+            bytes[id] = table.term(id).getBytes(StandardCharsets.UTF_8);
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> compare(bytes[a], bytes[b]));
+    
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            writeTo(temporary, bytes, order, table, totalTermCount, vocab);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+    
+    private static void writeTo(Path path, byte[][] bytes, Integer[] order,
+            TermTable table, long totalTermCount, int vocab) throws IOException {
+        int n = order.length;
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(totalTermCount);
+            out.writeInt(n);
+            out.writeInt(vocab);
+            for (int id : order) out.writeDouble(table.prob(id));
+            for (int id : order) out.writeDouble(table.logProb(id));
+            for (int id : order) out.writeLong(table.count(id));
+            int offset = 0;
+            for (int id : order) {
+                out.writeInt(offset);
+                if (bytes[id].length > Integer.MAX_VALUE - offset) {
+                    throw new IOException("Model Dictionary Too Large: " + path);
+                }
+                offset += bytes[id].length;
+            }
+            out.writeInt(offset);
+            for (int id : order) out.write(bytes[id]);
+            // the file is on disk before it replaces the model
+            out.flush();
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Decodes the file as a stream into the table, a file of any size is read
+     * with only its terms in memory, unlike a mapped file.
+     * 
+     * @param filename
+     * @param table the table the terms are put into
+     * @return the total term count of the model
+     * @throws IOException when the file is not a model file of a known version,
+     *      or is truncated
+     */
+    static long read(String filename, TermTable table) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(filename), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not A Binary Model File: " + filename);
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_1) {
+                throw new IOException("Unsupported Model Version "
+                        + version + ": " + filename);
+            }
+            long totalTermCount = version == VERSION ? in.readLong() : in.readInt();
+            int n = in.readInt();
+            if (version == VERSION) in.readInt();
+            if (n < 0) throw new IOException("Invalid Model File: " + filename);
+            double[] probs = new double[n];
+            for (int i = 0; i < n; i++) probs[i] = in.readDouble();
+            // the log probabilities are computed again from the probabilities
+            for (int i = 0; i < n; i++) in.readDouble();
+            long[] counts = new long[n];
+            for (int i = 0; i < n; i++) {
+                counts[i] = version == VERSION ? in.readLong() : in.readInt();
+            }
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i <= n; i++) offsets[i] = in.readInt();
+            byte[] bytes = new byte[0];
+            for (int i = 0; i < n; i++) {
+                int length = offsets[i + 1] - offsets[i];
+                if (length < 0) throw new IOException("Invalid Model File: " + filename);
+                if (bytes.length < length) bytes = new byte[length];
+                in.readFully(bytes, 0, length);
+                table.put(new String(bytes, 0, length, StandardCharsets.UTF_8),
+                        counts[i], probs[i]);
+            }
+            return totalTermCount;
+        } catch (EOFException ex) {
+            throw new IOException("Truncated Model File: " + filename);
+        }
+    }
+    
+    /**
+     * Maps the whole file read only and checks its header, a file of any size
+     * is mapped.
+     * 
+     * @param filename
+     * @return
+     * @throws IOException when the file is not a model file of a known version
+     */
+    static MappedFile map(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            MappedFile file = new MappedFile(channel);
+            if (file.length() < HEADER_1 || file.getInt(0) != MAGIC) {
+                throw new IOException("Not A Binary Model File: " + filename);
+            }
+            int version = file.getInt(4);
+            if (version != VERSION && version != VERSION_1) {
+                throw new IOException("Unsupported Model Version "
+                        + version + ": " + filename);
+            }
+            if (version == VERSION && file.length() < HEADER) {
+                throw new IOException("Truncated Model File: " + filename);
+            }
+            return file;
+        }
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @return true when the file starts with the magic number of the format
+     */
+    static boolean isBinaryModel(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {}
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Compares two arrays as unsigned bytes, the order of the dictionary.
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return a.length - b.length;
+    }
+}
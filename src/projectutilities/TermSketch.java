@@ -0,0 +1,290 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.HashMap;
+
+/**
+ * TermSketch - the counts of a stream of terms in a fixed amount of memory, the
+ * storage of an approximate TermCountProbabilityModel.
+ * 
+ * A count-min sketch of DEPTH rows of width w counters estimates the count of
+ * any term. An estimate is never below the true count, and with probability
+ * 1 - e^-DEPTH (above 99%) it is at most e/w * N above it, N being the number of
+ * terms added. Beside the sketch a min-heap keeps the k terms of the highest
+ * estimates, the heavy hitters, every term counted more than N/k + e/w * N times
+ * is among them with the same probability. A HyperLogLog of 2^HLL_BITS registers
+ * estimates the number of distinct terms, with a standard error of 1.04 /
+ * sqrt(2^HLL_BITS), about 0.8%.
+ * 
+ * The memory given is split between the sketch (three quarters) and the heavy
+ * hitters (a quarter, at about HEAVY_HITTER_BYTES a term). Sketches of the same
+ * memory can be merged, their counters and registers are simply combined.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TermSketch {
+    
+    private static final int DEPTH = 5;
+    private static final int HLL_BITS = 14;
+    private static final int HEAVY_HITTER_BYTES = 128;
+    private static final int MIN_HEAVY_HITTERS = 1024;
+    
+    private final long[][] rows;
+    private final int mask;
+    private final byte[] registers = new byte[1 << HLL_BITS];
+    // the heavy hitters, a min-heap by estimate with the heap position of each term
+    private final String[] heapTerms;
+    private final long[] heapCounts;
+    private final HashMap<String, Integer> positions;
+    private int heapSize;
+    private long total;
+    
+    /**
+     * 
+     * @param memoryBytes the memory the sketch may take
+     */
+    TermSketch(long memoryBytes) {
+        long width = Long.highestOneBit(Math.max(memoryBytes * 3 / 4 / (8 * DEPTH), 1024));
+        width = Math.min(width, 1 << 28);
+        rows = new long[DEPTH][(int) width];
+        mask = (int) width - 1;
+        int heavy = (int) Math.min(Math.max(memoryBytes / 4 / HEAVY_HITTER_BYTES,
+                MIN_HEAVY_HITTERS), 1 << 24);
+        heapTerms = new String[heavy];
+        heapCounts = new long[heavy];
+        positions = new HashMap<>(heavy * 2);
+    }
+    
+    /**
+     * 
+     * @param term
+     * @param n added to the count of the term
+     */
+    void add(String term, long n) {
+        long hash = hash(term);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = (h1 + row * h2) & mask;
+            rows[row][index] += n;
+            estimate = Math.min(estimate, rows[row][index]);
+        }
+        total += n;
+        addToRegisters(registers, hash);
+        offer(term, estimate);
+    }
+    
+    /**
+     * 
+     * @param term
+     * @return the estimated count of the term, never below the true count
+     */
+    long estimate(String term) {
+        long hash = hash(term);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, rows[row][(h1 + row * h2) & mask]);
+        }
+        return estimate;
+    }
+    
+    /**
+     * 
+     * @return the number of terms added
+     */
+    long getTotal() { return total; }
+    
+    /**
+     * 
+     * @return the most an estimate exceeds the true count, with probability
+     *      1 - e^-DEPTH
+     */
+    long getErrorBound() { return (long) Math.ceil(Math.E / rows[0].length * total); }
+    
+    /**
+     * 
+     * @return the estimated number of distinct terms
+     */
+    long getDistinctEstimate() { return estimateDistinct(registers); }
+    
+    /**
+     * Adds the counts of the other sketch, which must have the same memory.
+     * 
+     * @param other
+     */
+    void merge(TermSketch other) {
+        if (other.rows[0].length != rows[0].length) {
+            throw new IllegalArgumentException("Sketches Of Different Sizes");
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            for (int i = 0; i < rows[row].length; i++) rows[row][i] += other.rows[row][i];
+        }
+        total += other.total;
+        mergeRegisters(registers, other.registers);
+        // the heavy hitters of both are offered again with the merged estimates
+        for (int i = 0; i < heapSize; i++) heapCounts[i] = estimate(heapTerms[i]);
+        for (int i = heapSize / 2 - 1; i >= 0; i--) siftDown(i);
+        for (int i = 0; i < other.heapSize; i++) {
+            offer(other.heapTerms[i], estimate(other.heapTerms[i]));
+        }
+    }
+    
+    /**
+     * 
+     * @return the heavy hitters and their estimated counts
+     */
+    TermTable getHeavyHitters() {
+        TermTable table = new TermTable(heapSize);
+        for (int i = 0; i < heapSize; i++) {
+            table.put(heapTerms[i], heapCounts[i], -1);
+        }
+        return table;
+    }
+    
+    /**
+     * 
+     * @return the registers of the HyperLogLog, for the union of several sketches
+     */
+    byte[] getRegisters() { return registers; }
+    
+    /**
+     * Puts the term in the heap of heavy hitters when its estimate is among the
+     * highest, or updates the estimate of a term in the heap.
+     */
+    private void offer(String term, long estimate) {
+        Integer position = positions.get(term);
+        if (position != null) {
+            heapCounts[position] = estimate;
+            siftDown(position);
+        } else if (heapSize < heapTerms.length) {
+            heapTerms[heapSize] = term;
+            heapCounts[heapSize] = estimate;
+            positions.put(term, heapSize);
+            siftUp(heapSize++);
+        } else if (estimate > heapCounts[0]) {
+            positions.remove(heapTerms[0]);
+            heapTerms[0] = term;
+            heapCounts[0] = estimate;
+            positions.put(term, 0);
+            siftDown(0);
+        }
+    }
+    
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapCounts[parent] <= heapCounts[i]) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+    
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i, left = 2 * i + 1, right = left + 1;
+            if (left < heapSize && heapCounts[left] < heapCounts[smallest]) smallest = left;
+            if (right < heapSize && heapCounts[right] < heapCounts[smallest]) smallest = right;
+            if (smallest == i) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+    
+    private void swap(int a, int b) {
+        String term = heapTerms[a];
+        heapTerms[a] = heapTerms[b];
+        heapTerms[b] = term;
+        long count = heapCounts[a];
+        heapCounts[a] = heapCounts[b];
+        heapCounts[b] = count;
+        positions.put(heapTerms[a], a);
+        positions.put(heapTerms[b], b);
+    }
+    
+    /**
+     * 
+     * @return new registers for a HyperLogLog
+     */
+    static byte[] newRegisters() { return new byte[1 << HLL_BITS]; }
+    
+    /**
+     * 
+     * @param registers
+     * @param term added to the HyperLogLog of the registers
+     */
+    static void addToRegisters(byte[] registers, String term) {
+        addToRegisters(registers, hash(term));
+    }
+    
+    private static void addToRegisters(byte[] registers, long hash) {
+        long bits = mix(hash ^ 0x9E3779B97F4A7C15L);
+        int register = (int) (bits >>> (64 - HLL_BITS));
+        byte rank = (byte) (Long.numberOfLeadingZeros(
+                (bits << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1);
+        if (rank > registers[register]) registers[register] = rank;
+    }
+    
+    /**
+     * 
+     * @param registers
+     * @param other the registers merged into the first ones
+     */
+    static void mergeRegisters(byte[] registers, byte[] other) {
+        for (int i = 0; i < registers.length; i++) {
+            if (other[i] > registers[i]) registers[i] = other[i];
+        }
+    }
+    
+    /**
+     * 
+     * @param registers
+     * @return the estimated number of distinct terms added to the registers
+     */
+    static long estimateDistinct(byte[] registers) {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) zeros++;
+        }
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);    // linear counting
+        }
+        return Math.round(estimate);
+    }
+    
+    private static long hash(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            hash = (hash ^ term.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+    
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb93fe53a1ce3L;
+        return hash ^ (hash >>> 33);
+    }
+}
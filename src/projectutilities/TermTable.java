@@ -0,0 +1,204 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.util.Arrays;
+
+/**
+ * TermTable - the storage engine of the TermCountProbabilityModel.
+ * 
+ * Every distinct term is given an id, the id of a term is its position in the
+ * parallel arrays of terms, counts, probabilities and the natural logarithms of
+ * the probabilities (kept for scoring in log space), and the ids are found by
+ * an open addressing (linear probing) hash table of ints. Ids are handed out in
+ * insertion order and are never reused, so they stay valid as the table grows.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+final class TermTable {
+    
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private String[] terms;     // term of each id
+    private int[] hashes;       // cached hash of each id
+    private long[] counts;      // count of each id
+    private double[] probs;     // probability of each id
+    private double[] logProbs;  // log of the probability of each id
+    private int[] slots;        // id + 1 of each slot, 0 when the slot is free
+    private int size;
+    
+    TermTable() {
+        this(INITIAL_CAPACITY);
+    }
+    
+    TermTable(int expected) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expected) capacity <<= 1;
+        terms = new String[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        probs = new double[capacity];
+        logProbs = new double[capacity];
+        slots = new int[capacity << 1];     // load factor of at most 0.5
+    }
+    
+    /**
+     * Adds one to the count of the term with a single probe sequence, a term
+     * that is not present yet is added with a count of 1 and probability of -1.
+     * 
+     * @param term
+     * @return the id of the term
+     */
+    int increment(String term) {
+        int hash = mix(term.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                id = add(term, hash, slot);
+                counts[id] = 1;
+                return id;
+            }
+            if (hashes[id] == hash && terms[id].equals(term)) {
+                counts[id]++;
+                return id;
+            }
+        }
+    }
+    
+    /**
+     * Adds the term with the given count and probability, or adds the count to
+     * the term when it is present already, in which case the probability is
+     * left unchanged.
+     * 
+     * @param term
+     * @param count
+     * @param prob
+     * @return the id of the term
+     */
+    int put(String term, long count, double prob) {
+        int hash = mix(term.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                id = add(term, hash, slot);
+                counts[id] = count;
+                setProb(id, prob);
+                return id;
+            }
+            if (hashes[id] == hash && terms[id].equals(term)) {
+                counts[id] += count;
+                return id;
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @param term
+     * @return the id of the term, -1 when the term is not in the table
+     */
+    int find(String term) {
+        int hash = mix(term.hashCode());
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) return -1;
+            if (hashes[id] == hash && terms[id].equals(term)) return id;
+        }
+    }
+    
+    int size() { return size; }
+    
+    String term(int id) { return terms[id]; }
+    
+    long count(int id) { return counts[id]; }
+    
+    double prob(int id) { return probs[id]; }
+    
+    double logProb(int id) { return logProbs[id]; }
+    
+    void setProb(int id, double prob) {
+        probs[id] = prob;
+        logProbs[id] = Math.log(prob);
+    }
+    
+    /**
+     * 
+     * @param term
+     * @param hash
+     * @param slot the free slot the probe for the term ended on
+     * @return
+     */
+    private int add(String term, int hash, int slot) {
+        if (size == terms.length) {
+            grow();
+            return add(term, hash, freeSlot(hash));
+        }
+        int id = size++;
+        terms[id] = term;
+        hashes[id] = hash;
+        probs[id] = -1;
+        logProbs[id] = Double.NaN;
+        slots[slot] = id + 1;
+        return id;
+    }
+    
+    /**
+     * Doubles the arrays and rebuilds the slots from the cached hashes.
+     */
+    private void grow() {
+        int capacity = terms.length << 1;
+        terms = Arrays.copyOf(terms, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        probs = Arrays.copyOf(probs, capacity);
+        logProbs = Arrays.copyOf(logProbs, capacity);
+        slots = new int[capacity << 1];
+        for (int id = 0; id < size; id++) {
+            slots[freeSlot(hashes[id])] = id + 1;
+        }
+    }
+    
+    /**
+     * 
+     * @param hash
+     * @return the first free slot of the probe sequence of the hash
+     */
+    private int freeSlot(int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+        return slot;
+    }
+    
+    /**
+     * Spreads the bits of String.hashCode, which are weak in the low bits for
+     * short terms, so that linear probing does not cluster.
+     * 
+     * @param h
+     * @return
+     */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
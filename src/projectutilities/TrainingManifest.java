@@ -0,0 +1,195 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Set;
+import java.io.File;
+
+/**
+ * TrainingManifest - the record of the files that a model was trained from.
+ * 
+ * Every file is recorded with its length, modification time and CRC-32 of its
+ * content, one tab separated line per file, so an incremental training run can
+ * tell the new files from the ones already counted in the model. A file whose
+ * modification time changed but whose content did not is still unchanged. The
+ * manifest can be updated by several training threads at once.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class TrainingManifest {
+    
+    /**
+     * The recorded state of a single file.
+     */
+    private static class Record {
+        long length;
+        long modified;
+        long checksum;
+    }
+    
+    private final TreeMap<String, Record> RECORDS = new TreeMap<>();
+    private final String manifestFileName;
+    
+    /**
+     * Loads the manifest from the file, a missing file is an empty manifest.
+     * 
+     * @param manifestFileName
+     */
+    public TrainingManifest(String manifestFileName) {
+        this.manifestFileName = manifestFileName;
+        try (BufferedReader reader = Files.newBufferedReader(
+                Paths.get(manifestFileName), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) continue;
+                Record record = new Record();
+                record.length = Long.parseLong(fields[1]);
+                record.modified = Long.parseLong(fields[2]);
+                record.checksum = Long.parseLong(fields[3], 16);
+                RECORDS.put(fields[0], record);
+            }
+        } catch (NoSuchFileException ex) {
+            // nothing has been trained yet
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("ERR @ TrainingManifest: " + ex.getMessage());
+            RECORDS.clear();
+        }
+    }
+    
+    /**
+     * 
+     * @param name
+     * @return true when the file name has been recorded
+     */
+    public synchronized boolean contains(String name) { return RECORDS.containsKey(name); }
+    
+    /**
+     * 
+     * @return the names of all recorded files
+     */
+    public synchronized Set<String> getFileNames() {
+        return new TreeSet<>(RECORDS.keySet());
+    }
+    
+    /**
+     * Compares the file to its record, the content is only read when the length
+     * matches but the modification time does not.
+     * 
+     * @param name the name the file was recorded with
+     * @param file
+     * @return true when the file is recorded and its content has not changed
+     */
+    public synchronized boolean isUnchanged(String name, File file) {
+        Record record = RECORDS.get(name);
+        if (record == null || !file.isFile()) return false;
+        if (record.length != file.length()) return false;
+        if (record.modified == file.lastModified()) return true;
+        try {
+            if (checksum(file) != record.checksum) return false;
+            record.modified = file.lastModified();
+            return true;
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Records the current state of the file under the name.
+     * 
+     * @param name
+     * @param file
+     */
+    public void record(String name, File file) {
+        try {
+            Record record = new Record();
+            record.length = file.length();
+            record.modified = file.lastModified();
+            record.checksum = checksum(file);
+            synchronized (this) {
+                RECORDS.put(name, record);
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Removes all records, used before a model is trained from scratch.
+     */
+    public synchronized void clear() { RECORDS.clear(); }
+    
+    /**
+     * Writes the manifest to a temporary file and renames it over the old one.
+     */
+    public synchronized void save() {
+        File target = new File(manifestFileName);
+        File temp = new File(manifestFileName + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                temp.toPath(), StandardCharsets.UTF_8)) {
+            for (Entry<String, Record> entry : RECORDS.entrySet()) {
+                Record record = entry.getValue();
+                writer.write(entry.getKey() + "\t" + record.length + "\t"
+                        + record.modified + "\t" + Long.toHexString(record.checksum));
+                writer.newLine();
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+            return;
+        }
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                System.err.println("ERR @ TrainingManifest: Not Saved " + target);
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @param file
+     * @return the CRC-32 of the content of the file
+     * @throws IOException
+     */
+    static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+}
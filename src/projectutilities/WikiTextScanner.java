@@ -0,0 +1,201 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package projectutilities;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+
+/**
+ * WikiTextScanner - extracts the categories, anchors and normalized section
+ * texts of a page of wikitext in a single pass over the characters.
+ * 
+ * Links are read between double square brackets while skipping templates, a
+ * link starting with "Category:" is a category and any other link is an anchor
+ * (the part before the '|' when present). Sections are separated by every four
+ * '=' symbols outside of templates, and only the letters, digits and white space
+ * (as single spaces) of each section are kept for Part-of-Speech tagging.
+ * 
+ * The section buffer is reused from page to page, so a scanner should only be
+ * used by one thread at a time.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class WikiTextScanner {
+    
+    private static final String CATEGORY = "Category:";
+    
+    private final StringBuilder section = new StringBuilder();
+    private ArrayList<String> categories = new ArrayList<>();
+    private ArrayList<String> anchors = new ArrayList<>();
+    private ArrayList<String> texts = new ArrayList<>();
+    
+    /**
+     * 
+     * @param symbols
+     */
+    public void scan(char[] symbols) {
+        scan(CharBuffer.wrap(symbols));
+    }
+    
+    /**
+     * Scans the wikitext, the results are available from the getters until the
+     * next call to scan, which creates new lists rather than clearing the old.
+     * 
+     * @param symbols the wikitext of a single page
+     */
+    public void scan(CharSequence symbols) {
+    
+        categories = new ArrayList<>();
+        anchors = new ArrayList<>();
+        texts = new ArrayList<>();
+        section.setLength(0);
+    
+        int textBraces = 0;     // template depth as seen by the sections
+        int linkBraces = 0;     // template depth as seen by the links
+        int equalCount = 0;
+        int termStart = -1;
+        int termEnd = -1;
+        boolean reading = false;
+        boolean skip = false;   // second bracket of a link delimiter
+        char current, next;
+    
+        for (int i = 0; i < symbols.length() - 1; i++) {
+            current = symbols.charAt(i);
+            // sections
+            if (current == '{') textBraces++;
+            if (current == '}') textBraces--;
+            if (textBraces <= 0) {
+                if (current == '=') equalCount++;
+                if (equalCount == 4) {
+                    // the last character of a section is never kept
+                    int length = Math.max(section.length() - 1, 0);
+                    texts.add(section.substring(0, length));
+                    section.setLength(0);
+                    equalCount = 0;
+                }
+                appendNormalized(section, current);
+            }
+            // links
+            if (skip) {
+                skip = false;
+                continue;
+            }
+            if (current == '{' && !reading) linkBraces++;
+            if (current == '}' && !reading) linkBraces--;
+            if (linkBraces > 0) continue;
+            next = symbols.charAt(i + 1);
+            if (current == '[' && next == '[') {
+                termStart = i + 2;
+                reading = true;
+                skip = true;
+            } else if (current == ']' && next == ']') {
+                // a stray closing bracket repeats the previous link
+                if (reading) termEnd = i;
+                if (termStart >= 0) addTerm(symbols, termStart, termEnd);
+                reading = false;
+                skip = true;
+            }
+        }
+    }
+    
+    /**
+     * Normalizes a text the way the section texts of a page are, the templates
+     * are left out and only the letters, digits and white space (as single
+     * spaces) are kept, so a text to classify is tagged as the training texts.
+     * 
+     * @param symbols
+     * @return the normalized text
+     */
+    public static String normalize(CharSequence symbols) {
+        StringBuilder normalized = new StringBuilder(symbols.length());
+        int braces = 0;
+        for (int i = 0; i < symbols.length(); i++) {
+            char current = symbols.charAt(i);
+            if (current == '{') braces++;
+            if (current == '}') braces--;
+            if (braces <= 0) appendNormalized(normalized, current);
+        }
+        return normalized.toString();
+    }
+    
+    /**
+     * 
+     * @param text
+     * @param current appended when it is a letter or digit, as a space when it
+     *      is white space
+     */
+    private static void appendNormalized(StringBuilder text, char current) {
+        if (Character.isAlphabetic(current) || Character.isDigit(current)) {
+            text.append(current);
+        } else if (Character.isWhitespace(current)) {
+            text.append(' ');
+        }
+    }
+    
+    /**
+     * 
+     * @param symbols
+     * @param start
+     * @param end
+     */
+    private void addTerm(CharSequence symbols, int start, int end) {
+        if (startsWith(symbols, start, end, CATEGORY)) {
+            int from = start + CATEGORY.length();
+            if (from < end) categories.add(symbols.subSequence(from, end).toString());
+            return;
+        }
+        int bar = start;
+        while (bar < end && symbols.charAt(bar) != '|') bar++;
+        if (bar == start) bar = end;    // a leading '|' keeps the whole link
+        if (start < bar) anchors.add(symbols.subSequence(start, bar).toString());
+    }
+    
+    /**
+     * 
+     * @param symbols
+     * @param start
+     * @param end
+     * @param prefix
+     * @return
+     */
+    private boolean startsWith(CharSequence symbols, int start, int end, String prefix) {
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (symbols.charAt(start + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return the categories of the last scanned page
+     */
+    public ArrayList<String> getCategories() { return categories; }
+    
+    /**
+     * @return the anchors of the last scanned page
+     */
+    public ArrayList<String> getAnchors() { return anchors; }
+    
+    /**
+     * @return the normalized section texts of the last scanned page
+     */
+    public ArrayList<String> getTexts() { return texts; }
+    
+}
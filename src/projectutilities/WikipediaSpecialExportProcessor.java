@@ -17,30 +17,56 @@
  */
 package projectutilities;
 
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.TransformerFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.Transformer;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLInputFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.File;
 import org.xml.sax.SAXException;
+import java.io.InputStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
 import java.util.ArrayList;
+import java.util.List;
 import java.io.IOException;
-import java.io.File;
 
 /**
  * WikipediaSpecialExportProcessor - a collection of some file processing tools.
  * 
  * Developed to work with wikipedias special export files that can be retrieved
  * from the https://en.wikipedia.org/wiki/Special:Export web page. This suite
- * makes heavy use of the Document Object Model (DOM) for parsing the export and
- * also for writing the processed data to disk.
+ * makes heavy use of the Document Object Model (DOM) for parsing the export,
+ * the processed data is written to disk page by page by ProcessedExportWriter.
+ * 
+ * Exports too large to hold in memory can be converted with the streaming mode
+ * (streamSpecialExport) which reads one page at a time using StAX and writes it
+ * out immediately, producing the same output as the DOM based conversion. With
+ * more than one worker thread the streaming mode runs as a pipeline, a reader
+ * thread parses the pages, the workers extract the wikitext of the pages, and
+ * the calling thread writes the results in the original order of the pages.
+ * The paragraphs of the pages can also be handed straight to a consumer while
+ * streaming, with or without writing the processed export at all.
+ * 
+ * Of the exports with the full history of the pages the first revision of every
+ * page is processed, unless a RevisionFilter selects other revisions.
+ * 
+ * The exports can be read gzip or bzip2 compressed as well, straight from the
+ * compressed file, so the dumps never have to be decompressed to the disk.
  * 
  * @author W. Hatfield
  * @author U. Jaimini
@@ -58,31 +84,87 @@ public class WikipediaSpecialExportProcessor {
     }
     
     /**
+     * Single pass extractors of the categories, anchors and paragraphs.
+     */
+    private final ThreadLocal<WikiTextScanner> SCANNERS
+            = ThreadLocal.withInitial(WikiTextScanner::new);
+    
+    /**
+     * Pages allowed in the streaming pipeline per worker before the reader is
+     * blocked, which keeps a fast reader from filling the memory with pages.
+     */
+    private static final int PAGES_PER_WORKER = 4;
+    
+    /**
+     * The number of threads used for the wikitext extraction when streaming.
+     */
+    private final int workers;
+    
+    /**
+     * The revisions of every page that are processed.
+     */
+    private RevisionFilter revisions = RevisionFilter.FIRST;
+    
+    /**
+     * Default Constructor - streams with one worker per available processor.
+     */
+    public WikipediaSpecialExportProcessor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Creates a processor that uses the given number of worker threads in the
+     * streaming mode, one worker processes the pages on the calling thread.
+     * 
+     * @param workers 
+     */
+    public WikipediaSpecialExportProcessor(int workers) {
+        this.workers = Math.max(workers, 1);
+    }
+    
+    /**
+     * Selects the revisions of every page that are processed, by default the
+     * first revision of every page, every selected revision is processed as a
+     * page of its own.
+     * 
+     * @param revisions 
+     */
+    public void setRevisionFilter(RevisionFilter revisions) {
+        this.revisions = revisions;
+    }
+    
+    /**
+     * Reads the first depth text elements of every page of a processed export,
+     * the file is streamed so only the returned texts are held in memory, and
+     * gzip and bzip2 compressed files are recognized and decompressed while
+     * reading.
      * 
      * @param filename
      * @param depth
      * @return 
      */
     public ArrayList<String> getTextsFromProcessedExport(String filename, int depth) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(filename);
-            NodeList nodes = document.getElementsByTagName("page");
+        try (InputStream in = openXMLInput(filename)) {
+            XMLStreamReader reader = createReader(in);
             ArrayList<String> texts = new ArrayList<>();
+            int paragraphs = 0;
             
-            for (int i = 0; i < nodes.getLength(); i++) {
-                Element page = (Element) nodes.item(i);
-                //String s = page.getElementsByTagName("text").item(0).getTextContent();
-                NodeList paragraphs = page.getElementsByTagName("text");
-                for (int j = 0; j < paragraphs.getLength() && j < depth; j++) {
-                    texts.add(paragraphs.item(j).getTextContent());
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamReader.START_ELEMENT) continue;
+                switch (reader.getLocalName()) {
+                    case "page":
+                        paragraphs = 0;
+                        break;
+                    case "text":
+                        if (paragraphs++ < depth) texts.add(reader.getElementText());
+                        break;
                 }
             }
+            reader.close();
             
             return texts;
             
-        } catch (ParserConfigurationException | SAXException | IOException ex) {
+        } catch (XMLStreamException | IOException ex) {
             System.err.println("ERR @ getTextsFromProcessedExport: " + ex.toString());
         }
         return null;
@@ -95,260 +177,403 @@ public class WikipediaSpecialExportProcessor {
      */
     public void convertSpecialExport(String export, String xml) {
         Document document = importSpecialExport(export);
-        saveDocumentAsXML(document, xml);
+        if (document == null) return;
+        try (ProcessedExportWriter writer = new ProcessedExportWriter(xml)) {
+            NodeList nodes = document.getElementsByTagName("page");
+            processPageNodeList(nodes, writer);
+        } catch (XMLStreamException | IOException ex) {
+            System.err.println("ERR @ convertSpecialExport: " + ex.getMessage());
+        }
     }
     
     /**
+     * Streaming version of convertSpecialExport - the export is read one page
+     * at a time, and each page is processed and written to the xml file before
+     * the next one is read, so memory use does not depend on the export size.
+     * A name ending in ".gz" writes the processed export gzip compressed.
      * 
-     * @param filename
-     * @return 
+     * @param export
+     * @param xml 
+     * @return true when the whole export was processed
      */
-    private Document importSpecialExport(String filename) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(filename);
-            //
-            NodeList nodes = document.getElementsByTagName("page");
-            ArrayList<WikiPage> wikis = processPageNodeList(nodes);
-            //
-            Document processed = makeDocumentFromWikis(wikis);
-            return processed;
-            //
-        } catch (ParserConfigurationException | SAXException | IOException ex) {
-            System.err.println("ERR @ importSpecialExport: " + ex.getMessage());
-        }
-        return null;
+    public boolean streamSpecialExport(String export, String xml) {
+        return streamSpecialExport(export, xml, 0, null);
     }
     
     /**
+     * Streams the export like streamSpecialExport(export, xml) and hands the
+     * first depth text elements of every page to the consumer as they are
+     * extracted, the same texts getTextsFromProcessedExport would read back
+     * from the processed export. The consumer is called on the calling thread
+     * in page order, a consumer that blocks holds up the whole stream. With a
+     * null xml file name the processed export is not written at all.
      * 
-     * @param nodelist
-     * @return 
+     * @param export
+     * @param xml the processed export to write, or null
+     * @param depth
+     * @param texts receives the texts of the pages, or null
+     * @return true when the whole export was processed, otherwise the processed
+     *      export is left without the end of its root element
      */
-    private ArrayList<WikiPage> processPageNodeList(NodeList nodelist) {
-        
-        ArrayList<WikiPage> wikis = new ArrayList<>(nodelist.getLength());
-        for (int i = 0; i < nodelist.getLength(); i++) {
-            //
-            Element page = (Element) nodelist.item(i);
-            //
-            String title = page.getElementsByTagName("title").item(0).getTextContent().trim();
-            char[] chars = page.getElementsByTagName("text").item(0).getTextContent().toCharArray();
-            //
-            ArrayList<String> categories = parseTextByType(chars, "categories");
-            ArrayList<String> anchors = parseTextByType(chars, "anchors");
-            //
-            ArrayList<String> texts = getDifferentParagraphs(chars);
-            //
-            WikiPage wikipage = new WikiPage();
-            wikipage.categories = categories;
-            wikipage.anchors = anchors;
-            wikipage.title = title;
-            wikipage.texts = texts;
+    public boolean streamSpecialExport(String export, String xml, int depth,
+            Consumer<String> texts) {
+        try (InputStream in = openXMLInput(export);
+             ProcessedExportWriter writer
+                     = xml == null ? null : new ProcessedExportWriter(xml)) {
+            XMLStreamReader reader = createReader(in);
+            PageSink sink = wikipage -> {
+                if (writer != null) writeWikiPage(writer, wikipage);
+                if (texts != null) {
+                    int n = Math.min(depth, wikipage.texts.size());
+                    for (int i = 0; i < n; i++) texts.accept(wikipage.texts.get(i));
+                }
+            };
             //
-            wikis.add(wikipage);
+            boolean complete = false;
+            try {
+                boolean read = true;
+                if (workers == 1) {
+                    StringBuilder title = new StringBuilder();
+                    List<StringBuilder> revisionTexts = new ArrayList<>();
+                    for (int n = readNextPage(reader, title, revisionTexts); n >= 0;
+                            n = readNextPage(reader, title, revisionTexts)) {
+                        String trimmed = title.toString().trim();
+                        for (int i = 0; i < n; i++) {
+                            sink.accept(makeWikiPage(trimmed, revisionTexts.get(i)));
+                        }
+                    }
+                } else {
+                    read = streamPagesInParallel(reader, sink,
+                            "export_pages_" + new File(export).getName());
+                }
+                //
+                reader.close();
+                complete = read;
+            } finally {
+                // a partial export must not be closed as a complete one
+                if (!complete && writer != null) writer.abort();
+            }
+            return complete;
+        } catch (XMLStreamException | IOException ex) {
+            System.err.println("ERR @ streamSpecialExport: " + ex.getMessage());
         }
-        return wikis;
+        return false;
     }
-
-    private ArrayList<String> getDifferentParagraphs(char[] symbols) {
-
-        ArrayList<String> texts = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        int braceCount = 0;
-        int equalCount = 0;
-        char current;
-
-        for (int i = 0; i < symbols.length - 1; i++) {
-            current = symbols[i];
-            if (current == '{') braceCount++;
-            if (current == '}') braceCount--;
-            if (braceCount > 0) continue;
-            if (current == '=') equalCount++;
-            if (equalCount == 4) {
-                String norml = normalizeWikiPageTextForPOSTagging(sb.toString().toCharArray());
-                texts.add(norml);
-                sb = new StringBuilder();
-                equalCount = 0;
+    
+    /**
+     * Receives the processed pages of the stream in page order.
+     */
+    private interface PageSink {
+        void accept(WikiPage wikipage) throws XMLStreamException;
+    }
+    
+    /**
+     * The parallel streaming pipeline - a reader thread submits every page to
+     * the worker pool and queues the pending result, the bounded queue provides
+     * the back pressure, and the calling thread takes the results off the queue
+     * in submission order and hands them to the sink, so the page order is kept.
+     * 
+     * @param reader
+     * @param sink 
+     * @param gauge the name of the metrics gauge of the pending pages, exports
+     *      streamed at the same time need names of their own
+     * @return true when every page of the export was handed to the sink
+     */
+    private boolean streamPagesInParallel(XMLStreamReader reader, PageSink sink,
+            String gauge) throws XMLStreamException {
+        
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        AtomicBoolean failed = new AtomicBoolean();
+        BlockingQueue<Future<WikiPage>> pending
+                = new ArrayBlockingQueue<>(workers * PAGES_PER_WORKER);
+        Future<WikiPage> end = CompletableFuture.completedFuture(null);
+        PipelineMetrics.addGauge(gauge, pending::size);
+        
+        Thread producer = new Thread(() -> {
+            StringBuilder title = new StringBuilder();
+            List<StringBuilder> revisionTexts = new ArrayList<>();
+            try {
+                for (int n = readNextPage(reader, title, revisionTexts); n >= 0;
+                        n = readNextPage(reader, title, revisionTexts)) {
+                    String trimmed = title.toString().trim();
+                    for (int i = 0; i < n; i++) {
+                        String wikitext = revisionTexts.get(i).toString();
+                        pending.put(pool.submit(() -> makeWikiPage(trimmed, wikitext)));
+                    }
+                }
+            } catch (XMLStreamException | RuntimeException ex) {
+                System.err.println("ERR @ streamPagesInParallel: " + ex.getMessage());
+                failed.set(true);
+            } catch (InterruptedException ex) {
+                return; // the writer has given up, nobody is waiting for the end
             }
-            boolean letter = Character.isAlphabetic(current);
-            boolean white = Character.isWhitespace(current);
-            boolean digit = Character.isDigit(current);
-            if (letter || digit) {
-                sb.append(current);
-            } else if (white) {
-                sb.append(' ');
+            try {
+                pending.put(end);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "special-export-reader");
+        
+        producer.start();
+        try {
+            for (Future<WikiPage> page = pending.take(); page != end; page = pending.take()) {
+                sink.accept(page.get());
             }
+            return !failed.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.err.println("ERR @ streamPagesInParallel: interrupted");
+        } catch (ExecutionException ex) {
+            System.err.println("ERR @ streamPagesInParallel: " + ex.getCause());
+        } finally {
+            PipelineMetrics.removeGauge(gauge);
+            producer.interrupt();
+            pool.shutdownNow();
+            // the reader is not used after the input stream is closed
+            joinUninterruptibly(producer);
         }
-        return texts;
+        return false;
     }
     
-    private String normalizeWikiPageTextForPOSTagging(char[] symbols) {
-
-        StringBuilder sb = new StringBuilder();
-        int braceCount = 0;
-        char current, next;
-
-        for (int i = 0; i < symbols.length - 1; i++) {
-            next = symbols[i + 1];  // hence length - 1
-            current = symbols[i];
-            if (current == '=' && next == '=') break;
-            if (current == '{') braceCount++;
-            if (current == '}') braceCount--;
-            if (braceCount > 0) continue;
-            boolean letter = Character.isAlphabetic(current);
-            boolean white = Character.isWhitespace(current);
-            boolean digit = Character.isDigit(current);
-            if (letter || digit) {
-                sb.append(current);
-            } else if (white) {
-                sb.append(' ');
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
             }
         }
-        return sb.toString();
+        if (interrupted) Thread.currentThread().interrupt();
     }
-
+    
     /**
+     * Advances the reader through the next page element, copying the content of
+     * the first title element, and of the text element of every revision the
+     * revision filter selects, into the given builders. The text of any other
+     * revision is passed over without being copied. With the latest filter only
+     * the text of the current revision is kept, in the first builder, and it is
+     * dropped at the start of the next revision. Whether a revision is the last
+     * one is only known at the element after it, once the parser has passed its
+     * text, and the stream is not read twice, so the text of every revision is
+     * still copied. A page without any text element, or whose latest revision
+     * has none, has one empty text, like a page with an empty text element.
      * 
-     * @param symbols
-     * @param type
-     * @return 
+     * @param reader
+     * @param title
+     * @param texts the builders of the texts, reused from page to page
+     * @return the number of selected texts (the first ones of the builders), or
+     *      -1 when there are no more pages in the export
      */
-    private ArrayList<String> parseTextByType(char[] symbols, String type) {
-
-        ArrayList<String> list = new ArrayList<>();
-        StringBuilder sb = null;
-        boolean reading = false;
-        int braceCount = 0;
-        char current, next;
-
-        for (int i = 0; i < symbols.length - 1; i++) {
-            next = symbols[i + 1];  // hence length - 1
-            current = symbols[i];
-            if (current == '{' && !reading) braceCount++;
-            if (current == '}' && !reading) braceCount--;
-            if (braceCount > 0) continue;
-            if (current == '[' && next == '[') {
-                sb = new StringBuilder();
-                reading = true;
-                i++; // step over second brace
-            } else if (current == ']' && next == ']') {
-                String parsedTerm = parseTermByType(sb.toString(), type);
-                if (!parsedTerm.isEmpty()) list.add(parsedTerm);
-                reading = false;
-                i++; // step over second brace
-            } else if (reading) {
-                sb.append(current);
+    private int readNextPage(XMLStreamReader reader, StringBuilder title,
+            List<StringBuilder> texts) throws XMLStreamException {
+        title.setLength(0);
+        StringBuilder timestamp = new StringBuilder();
+        boolean inPage = false, inRevision = false, hasTitle = false, hasText = false;
+        int revision = -1, selected = 0;
+        StringBuilder target = null;
+        
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamReader.START_ELEMENT: {
+                    String name = reader.getLocalName();
+                    if (name.equals("page")) {
+                        inPage = true;
+                    } else if (inPage && name.equals("title") && !hasTitle) {
+                        target = title;
+                        hasTitle = true;
+                    } else if (inPage && name.equals("revision")) {
+                        inRevision = true;
+                        revision++;
+                        timestamp.setLength(0);
+                        // the revision before is not the latest one
+                        if (revisions.isLatest()) {
+                            selected = 0;
+                            hasText = false;
+                        }
+                    } else if (inRevision && name.equals("timestamp")
+                            && revisions.needsTimestamp()) {
+                        target = timestamp;
+                    } else if (inPage && name.equals("text")) {
+                        // a text outside of a revision is the first revision
+                        int index = Math.max(revision, 0);
+                        hasText = true;
+                        if (revisions.isDone(index) || !revisions.accepts(index, timestamp)) {
+                            break;
+                        }
+                        int slot = revisions.isLatest() ? 0 : selected;
+                        if (slot == texts.size()) texts.add(new StringBuilder());
+                        target = texts.get(slot);
+                        target.setLength(0);
+                        selected = slot + 1;
+                    }
+                    break;
+                }
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.CDATA:
+                case XMLStreamReader.SPACE: {
+                    if (target != null) {
+                        target.append(reader.getTextCharacters(),
+                                reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                }
+                case XMLStreamReader.END_ELEMENT: {
+                    String name = reader.getLocalName();
+                    if (name.equals("title") || name.equals("text")
+                            || name.equals("timestamp")) {
+                        target = null;
+                    } else if (name.equals("revision")) {
+                        inRevision = false;
+                    } else if (name.equals("page") && inPage) {
+                        if (hasText) return selected;
+                        if (texts.isEmpty()) texts.add(new StringBuilder());
+                        texts.get(0).setLength(0);
+                        return 1;
+                    }
+                    break;
+                }
             }
         }
-        return list;
+        return -1;
     }
-
+    
     /**
+     * Opens a buffered stream of the xml file, a file starting with the gzip or
+     * the bzip2 magic number is decompressed transparently. A multistream bzip2
+     * dump with its index next to it is decompressed on the worker threads (see
+     * MultistreamBZip2InputStream), and read in order all the same.
      * 
-     * @param term
-     * @param type
+     * @param filename
      * @return 
      */
-    private String parseTermByType(String term, String type) {
-
-        String prefix = "Category:";
-        switch (type) {
-            case "categories":
-                if (term.startsWith("Category:")) {
-                    return term.substring("Category:".length());
-                }
-                break;
-            case "anchors":
-                if (term.startsWith(prefix)) return "";
-                int bar = term.indexOf('|');
-                if (bar > 0) {
-                    return term.substring(0, bar);
-                } else {
-                    return term.substring(0);
-            }
+    private InputStream openXMLInput(String filename) throws IOException {
+        String index = MultistreamBZip2InputStream.findIndex(filename);
+        if (index != null) {
+            return new BufferedInputStream(
+                    new MultistreamBZip2InputStream(filename, index, workers), 1 << 16);
         }
-        return "";
+        InputStream in = new BufferedInputStream(
+                PipelineMetrics.counting(new FileInputStream(filename)));
+        in.mark(3);
+        int magic = in.read() | (in.read() << 8);
+        int level = in.read();
+        in.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            return new BufferedInputStream(new GZIPInputStream(in));
+        }
+        if (magic == ('B' | 'Z' << 8) && level == 'h') {
+            return new BufferedInputStream(new BZip2InputStream(in), 1 << 16);
+        }
+        return in;
     }
     
     /**
      * 
-     * @param wikilist
+     * @param in
      * @return 
      */
-    private Document makeDocumentFromWikis(ArrayList<WikiPage> wikilist) {
-        try {
+    private XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory.createXMLStreamReader(in);
+    }
+    
+    /**
+     * 
+     * @param filename
+     * @return 
+     */
+    private Document importSpecialExport(String filename) {
+        try (InputStream in = openXMLInput(filename)) {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.newDocument();
-            //
-            Element root = document.createElement("ProcessedSpecialExportData");
-            document.appendChild(root);
-            //
-            for (WikiPage wikipage : wikilist) {
-                Element page = document.createElement("page");
-                root.appendChild(page);
-                //
-                Element title = document.createElement("title");
-                title.appendChild(document.createTextNode(wikipage.title));
-                page.appendChild(title);
-                //
-                for (String p : wikipage.texts) {
-                    Element text = document.createElement("text");
-                    text.appendChild(document.createTextNode(p));
-                    page.appendChild(text);
-                }
-                //
-                Element categories = document.createElement("categories");
-                String cat_Text = stringifyList(wikipage.categories);
-                categories.appendChild(document.createTextNode(cat_Text));
-                page.appendChild(categories);
-                //
-                Element anchors = document.createElement("anchors");
-                String anc_Text = stringifyList(wikipage.anchors);
-                anchors.appendChild(document.createTextNode(anc_Text));
-                page.appendChild(anchors);
-                //
-            }
+            Document document = builder.parse(in, new File(filename).toURI().toString());
             return document;
-        } catch (ParserConfigurationException ex) {
-            System.err.println("ParserConfigurationException: " + ex.getMessage());
+        } catch (ParserConfigurationException | SAXException | IOException ex) {
+            System.err.println("ERR @ importSpecialExport: " + ex.getMessage());
         }
         return null;
     }
     
     /**
      * 
-     * @param list
-     * @return 
+     * @param nodelist
+     * @param writer 
      */
-    private String stringifyList(ArrayList<String> list) {
-        StringBuilder sb = new StringBuilder();
-        for (String s : list) {
-            sb.append(' ');
-            sb.append(s);
+    private void processPageNodeList(NodeList nodelist, ProcessedExportWriter writer)
+            throws XMLStreamException {
+        
+        for (int i = 0; i < nodelist.getLength(); i++) {
+            //
+            Element page = (Element) nodelist.item(i);
+            //
+            String title = page.getElementsByTagName("title").item(0).getTextContent().trim();
+            //
+            for (String text : selectRevisionTexts(page)) {
+                writeWikiPage(writer, makeWikiPage(title, text));
+            }
         }
-        return sb.toString();
     }
     
     /**
+     * The DOM version of the revision selection of readNextPage.
      * 
-     * @param document
-     * @param filename 
+     * @param page
+     * @return the texts of the revisions of the page the revision filter selects
      */
-    private void saveDocumentAsXML(Document document, String filename) {
-        try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
-            DOMSource source = new DOMSource(document);
-            File xmlFile = new File(filename);
-            StreamResult result = new StreamResult(xmlFile);
-            transformer.transform(source, result);
-        } catch (TransformerConfigurationException ex) {
-            System.err.println("TransformerConfigurationException: " + ex.getMessage());
-        } catch (TransformerException ex) {
-            System.err.println("TransformerException: " + ex.getMessage());
+    private List<String> selectRevisionTexts(Element page) {
+        List<String> texts = new ArrayList<>();
+        NodeList nodes = page.getElementsByTagName("revision");
+        if (nodes.getLength() == 0) {
+            texts.add(page.getElementsByTagName("text").item(0).getTextContent());
+            return texts;
+        }
+        for (int i = 0; i < nodes.getLength() && !revisions.isDone(i); i++) {
+            Element revision = (Element) nodes.item(i);
+            NodeList text = revision.getElementsByTagName("text");
+            NodeList timestamp = revision.getElementsByTagName("timestamp");
+            String time = timestamp.getLength() == 0 ? "" : timestamp.item(0).getTextContent();
+            if (text.getLength() == 0 || !revisions.accepts(i, time)) continue;
+            if (revisions.isLatest()) texts.clear();
+            texts.add(text.item(0).getTextContent());
         }
+        return texts;
+    }
+    
+    /**
+     * 
+     * @param title
+     * @param text
+     * @return 
+     */
+    private WikiPage makeWikiPage(String title, CharSequence text) {
+        //
+        long start = PipelineMetrics.start();
+        WikiTextScanner scanner = SCANNERS.get();
+        scanner.scan(text);
+        //
+        WikiPage wikipage = new WikiPage();
+        wikipage.categories = scanner.getCategories();
+        wikipage.anchors = scanner.getAnchors();
+        wikipage.title = title;
+        wikipage.texts = scanner.getTexts();
+        //
+        PipelineMetrics.stop(PipelineMetrics.Timer.PAGE_EXTRACTION, start);
+        PipelineMetrics.count(PipelineMetrics.Counter.PAGES_PARSED, 1);
+        PipelineMetrics.count(PipelineMetrics.Counter.PARAGRAPHS_EXTRACTED,
+                wikipage.texts.size());
+        return wikipage;
+    }
+    
+    /**
+     * 
+     * @param writer
+     * @param wikipage 
+     */
+    private void writeWikiPage(ProcessedExportWriter writer, WikiPage wikipage)
+            throws XMLStreamException {
+        writer.writePage(wikipage.title, wikipage.texts,
+                wikipage.categories, wikipage.anchors);
     }
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+/* Copyright (c) 2016 William Hatfield, Utkarshani Jaimini, Uday Sagar Panjala.
+ * 
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.
+ * 
+ * See the GNU General Public License for more details. <-- LICENSE.md -->
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package wikipediaspecialexportmodeler;
+import projectutilities.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.util.LinkedHashMap;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.io.File;
+
+/**
+ * ClassifierService - classifies documents with the trained models, one document
+ * per line, from stdin or over a local HTTP endpoint.
+ * 
+ *      java wikipediaspecialexportmodeler.ClassifierService [-tagged]
+ *              [-taggers n] [-stdin | -http port]
+ * 
+ * Every document is answered with a line of the best class and the score of
+ * each class, separated by tabs. Raw documents are normalized as the texts of
+ * the exports were before they are tagged, by at most -taggers Stanford taggers
+ * (2 by default, each a copy of the tagger model in the heap). With -tagged the
+ * documents are already tagged text and the tagger is never loaded. The HTTP endpoint takes
+ * the documents as the body of a POST to /classify (/classify?tagged for tagged
+ * text), and lists the classes at /classes. The classes are the ones the models
+ * were last trained for, objects, women and men unless the modeler was given
+ * -classes.
+ * 
+ * @author W. Hatfield
+ * @author U. Jaimini
+ * @author U. Panjala
+ */
+public class ClassifierService {
+    /**************************************************************************/
+    // The Models Trained By The WikipediaSpecialExportModeler
+    private static final String MODEL_FILES = "files/model_files/";
+    private static final String FEATURES_FILE = MODEL_FILES + "features";
+    private static final String CLASSES_FILE = MODEL_FILES + "classes";
+    // the classes of models trained before the classes were written
+    private static final String[] DEFAULT_CLASSES = {"objects", "women", "men"};
+    /**************************************************************************/
+    private static final int BATCH_SIZE = 1024;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        boolean tagged = false;
+        int port = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-tagged")) tagged = true;
+            if (args[i].equals("-http") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            }
+            if (args[i].equals("-taggers") && i + 1 < args.length) {
+                StanfordSpeechTaggerAndCounter.setPoolSize(Integer.parseInt(args[++i]));
+            }
+        }
+        Map<String, String> models = new LinkedHashMap<>();
+        TermModelClassifier classifier = null;
+        try {
+            List<String> classes = new File(CLASSES_FILE).isFile()
+                    ? Files.readAllLines(Paths.get(CLASSES_FILE), StandardCharsets.UTF_8)
+                    : Arrays.asList(DEFAULT_CLASSES);
+            for (String name : classes) {
+                name = name.trim();
+                if (!name.isEmpty()) models.put(name, MODEL_FILES + name + ".mdl");
+            }
+            classifier = new TermModelClassifier(models, FeatureExtractor.read(FEATURES_FILE),
+                    tagged ? null : new StanfordSpeechTaggerAndCounter(THREADS));
+        } catch (IOException | IllegalArgumentException ex) {
+            // the models have not been trained, this is a fatal error
+            System.err.println("IOException: " + ex.getMessage());
+            System.err.println("FATAL ERROR: Exiting Program !");
+            System.exit(1);
+        }
+        //
+        if (port >= 0) {
+            serveHttp(classifier, port, !tagged);
+        } else {
+            serveStdin(classifier, tagged);
+        }
+    }
+    
+    /**
+     * Reads the documents from stdin, the lines waiting to be read are scored
+     * together in one batch.
+     * 
+     * @param classifier
+     * @param tagged
+     */
+    private static void serveStdin(TermModelClassifier classifier, boolean tagged) {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            StringBuilder out = new StringBuilder();
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE || !in.ready()) {
+                    answer(classifier, batch, tagged, out);
+                    System.out.print(out);
+                    System.out.flush();
+                    batch.clear();
+                    out.setLength(0);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Serves the classifier on the port of the loopback address until the
+     * process is stopped.
+     * 
+     * @param classifier
+     * @param port
+     * @param raw true when raw texts can be scored, the tagger is loaded
+     */
+    private static void serveHttp(TermModelClassifier classifier, int port, boolean raw) {
+        try {
+            HttpServer server = HttpServer.create(
+                    new InetSocketAddress("127.0.0.1", port), 0);
+            server.createContext("/classes", exchange -> respond(exchange, 200,
+                    String.join("\t", classifier.getClassNames()) + "\n"));
+            server.createContext("/classify", exchange -> {
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    respond(exchange, 405, "POST The Documents, One Per Line\n");
+                    return;
+                }
+                boolean tagged = isSet(exchange.getRequestURI().getRawQuery(), "tagged");
+                if (!tagged && !raw) {
+                    respond(exchange, 400, "Only Tagged Texts Are Scored (?tagged)\n");
+                    return;
+                }
+                List<String> documents = new ArrayList<>();
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        documents.add(line);
+                    }
+                }
+                StringBuilder out = new StringBuilder();
+                for (int from = 0; from < documents.size(); from += BATCH_SIZE) {
+                    int to = Math.min(from + BATCH_SIZE, documents.size());
+                    answer(classifier, documents.subList(from, to), tagged, out);
+                }
+                respond(exchange, 200, out.toString());
+            });
+            server.setExecutor(Executors.newFixedThreadPool(THREADS));
+            server.start();
+            System.err.println("Classifying @ http://127.0.0.1:"
+                    + server.getAddress().getPort() + "/classify");
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+            System.exit(2);
+        }
+    }
+    
+    /**
+     * Scores the batch and appends a line for every document, the best class
+     * followed by the scores, or an empty line for a text that was not tagged.
+     * 
+     * @param classifier
+     * @param batch
+     * @param tagged
+     * @param out
+     */
+    private static void answer(TermModelClassifier classifier, List<String> batch,
+            boolean tagged, StringBuilder out) {
+        double[][] scores = tagged
+                ? classifier.scoreTaggedBatch(batch)
+                : classifier.scoreBatch(batch);
+        for (double[] score : scores) {
+            if (score != null) {
+                out.append(classifier.best(score));
+                for (double s : score) out.append('\t').append(s);
+            }
+            out.append('\n');
+        }
+    }
+    
+    /**
+     * 
+     * @param query the raw query of the request, or null
+     * @param name
+     * @return true when the query has the parameter, without a value or with
+     *      any value other than 0 or false
+     * @throws UnsupportedEncodingException
+     */
+    private static boolean isSet(String query, String name)
+            throws UnsupportedEncodingException {
+        if (query == null) return false;
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String key = equals < 0 ? parameter : parameter.substring(0, equals);
+            if (!URLDecoder.decode(key, "UTF-8").equals(name)) continue;
+            String value = equals < 0 ? ""
+                    : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+            return !value.equals("0") && !value.equalsIgnoreCase("false");
+        }
+        return false;
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -18,10 +18,24 @@
 package wikipediaspecialexportmodeler;
 import projectutilities.*;
 
-import java.io.FileNotFoundException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.BlockingQueue;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.io.IOException;
-import java.io.FileReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.io.File;
 
 /**
@@ -37,44 +51,146 @@ public class WikipediaSpecialExportModeler {
     private static final String REFINED_XML = "files/refined_xml/";
     private static final String TAGGED_TEXT = "files/tagged_text/";
     private static final String MODEL_FILES = "files/model_files/";
-    // The Tagged Text Output Directories
-    private static final String TAGGED_OBJECTS = TAGGED_TEXT + "objects/";
-    private static final String TAGGED_WOMEN = TAGGED_TEXT + "women/";
-    private static final String TAGGED_MEN = TAGGED_TEXT + "men/";
-    //
-    private static final String MODEL_OF_OBJECTS = MODEL_FILES + "objects.mdl";
-    private static final String MODEL_OF_WOMEN = MODEL_FILES + "women.mdl";
-    private static final String MODEL_OF_MEN = MODEL_FILES + "men.mdl";
+    private static final String CHECKPOINT_FILE = "files/pipeline.checkpoint";
+    private static final String TAG_CACHE = "files/tag_cache/";
+    private static final String FEATURES_FILE = MODEL_FILES + "features";
+    private static final String CLASSES_FILE = MODEL_FILES + "classes";
+    // The tagged texts of a class are in TAGGED_TEXT + class + "/", a directory
+    // for every processed export of the class, the model in MODEL_FILES + class
+    // + ".mdl", the classes are given by -classes
+    private static List<String> CLASSES = Arrays.asList("objects", "women", "men");
     /**************************************************************************/
     private static WikipediaSpecialExportProcessor WSEP;    // export processor
     private static StanfordSpeechTaggerAndCounter SSTC;     // speech tagger
+    private static PipelineCheckpoint CHECKPOINT;           // finished work
+    private static FeatureExtractor FEATURES = FeatureExtractor.PRONOUNS;
+    private static RevisionFilter REVISIONS = RevisionFilter.FIRST;
+    private static final Map<String, TrainingManifest> MANIFESTS = new ConcurrentHashMap<>();
     private static final int NUMBER_OF_PARAGRAPHS_FOR_TRAINING = 1;
+    private static final int TAGGING_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int TAGGING_BATCH_SIZE = 1024;
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final int STREAMING_BATCHES = 4;    // batches between stages
+    private static final int CHECKPOINT_BATCHES = 16;  // batches per checkpoint
+    private static final long TAG_CACHE_BYTES = 1L << 30;
+    private static final int TAG_CACHE_HOT_ENTRIES = 16384;
+    private static final long METRICS_PERIOD_SECONDS = 10;
+    private static final int INGESTION_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final double INGESTION_HEAP_FRACTION = 0.5;  // the rest for the models
+    private static final long STREAM_JOB_MEMORY = 64L << 20;    // pages in flight, buffers
+    private static boolean incremental = false;
+    private static boolean streaming = false;
+    private static boolean intermediates = false;
+    private static boolean resume = false;
+    private static boolean tagcache = false;
+    private static boolean metrics = false;
+    private static long approximate = 0;    // memory of the sketch of a model
     
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        // TODO code application logic here
-        WSEP = new WikipediaSpecialExportProcessor();
-        SSTC = new StanfordSpeechTaggerAndCounter();
-        //
-        System.out.println("processing export files ...");
-        initWikipediaSpecialExportProcessor();
-        System.out.println("tagging refined xml");
-        parseAndTagProcessedExportTexts();
+        // -incremental only adds the new tagged text segments to existing models
+        // -streaming goes from the exports to the models without any files in
+        // between, -intermediates still writes them (for debugging)
+        // -resume skips the work a crashed run has finished already
+        // -tagcache keeps the tagged texts, so repeated texts are tagged once
+        // -metrics logs the pipeline metrics periodically and exposes them to JMX
+        // -features spec sets the features of the models, see FeatureExtractor
+        // -approximate MB counts the terms of each model in a sketch of MB
+        // -revisions spec selects the revisions of the pages, see RevisionFilter
+        // -taggers n loads at most n Stanford taggers (2 by default), the tagging
+        // threads share them and every tagger is a copy of its model in the heap
+        // -classes a,b,c sets the classes, an export belongs to the class of the
+        // longest class name in its file name
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-incremental")) incremental = true;
+            if (arg.equals("-streaming")) streaming = true;
+            if (arg.equals("-intermediates")) intermediates = true;
+            if (arg.equals("-resume")) resume = true;
+            if (arg.equals("-tagcache")) tagcache = true;
+            if (arg.equals("-metrics")) metrics = true;
+            if (arg.equals("-features") && i + 1 < args.length) {
+                FEATURES = FeatureExtractor.parse(args[++i]);
+            }
+            if (arg.equals("-approximate") && i + 1 < args.length) {
+                approximate = Long.parseLong(args[++i]) << 20;
+            }
+            if (arg.equals("-revisions") && i + 1 < args.length) {
+                REVISIONS = RevisionFilter.parse(args[++i]);
+            }
+            if (arg.equals("-taggers") && i + 1 < args.length) {
+                StanfordSpeechTaggerAndCounter.setPoolSize(Integer.parseInt(args[++i]));
+            }
+            if (arg.equals("-classes") && i + 1 < args.length) {
+                CLASSES = Arrays.asList(args[++i].split(","));
+            }
+        }
+        if (incremental && !FEATURES.equals(readTrainedFeatures())) {
+            System.err.println("Features Changed Since Training, Retraining: " + FEATURES);
+            incremental = false;
+        }
+        if (incremental && approximate > 0) {
+            // a saved model only has the heavy hitters of its sketch
+            System.err.println("Approximate Models Are Not Updated, Retraining");
+            incremental = false;
+        }
+        if (metrics) PipelineMetrics.enable(METRICS_PERIOD_SECONDS);
+        SSTC = new StanfordSpeechTaggerAndCounter(TAGGING_THREADS);
+        StanfordSpeechTaggerAndCounter.setLoadListener((model, nanos) ->
+                System.err.println("Loaded Tagger " + model + " in "
+                        + (nanos / 1000000) + " ms"));
+        TagCache cache = null;
+        if (tagcache) {
+            cache = new TagCache(TAG_CACHE, TAG_CACHE_BYTES, TAG_CACHE_HOT_ENTRIES);
+            StanfordSpeechTaggerAndCounter.setTagCache(cache);
+        }
         //
-        System.out.println("training the object model");
-        trainModelsFromTaggedText(TAGGED_OBJECTS, MODEL_OF_OBJECTS);
-        System.out.println("training the women model");
-        trainModelsFromTaggedText(TAGGED_WOMEN, MODEL_OF_WOMEN);
-        System.out.println("training the men model");
-        trainModelsFromTaggedText(TAGGED_MEN, MODEL_OF_MEN);
+        if (streaming) {
+            System.out.println("streaming export files into the models ...");
+            streamExportsIntoModels();
+        } else {
+            CHECKPOINT = new PipelineCheckpoint(CHECKPOINT_FILE);
+            if (!resume) CHECKPOINT.clear();
+            System.out.println("processing export files ...");
+            initWikipediaSpecialExportProcessor();
+            System.out.println("tagging refined xml");
+            parseAndTagProcessedExportTexts();
+            //
+            System.out.println("training the models of " + String.join(", ", CLASSES));
+            Map<String, CompletableFuture<TermCountProbabilityModel>> training
+                    = new LinkedHashMap<>();
+            for (String exportClass : CLASSES) {
+                String dir = TAGGED_TEXT + exportClass + "/";
+                String modelName = MODEL_FILES + exportClass + ".mdl";
+                training.put(modelName, CompletableFuture
+                        .supplyAsync(() -> trainModelsFromTaggedText(dir, modelName)));
+            }
+            Map<String, TermCountProbabilityModel> models = new LinkedHashMap<>();
+            training.forEach((modelName, model) -> models.put(modelName, model.join()));
+            saveModels(models);
+        }
         //
+        if (cache != null) {
+            System.err.println(cache.toString());
+            try {
+                cache.close();
+            } catch (IOException ex) {
+                System.err.println("IOException: " + ex.getMessage());
+            }
+        }
+        PipelineMetrics.disable();
         System.out.println("Training Complete - Have A Good Day!");
         //
         
     }
     
+    /**
+     * Converts every export of the special exports into a processed export of
+     * its own, named after the export, the exports are converted in parallel by
+     * the IngestionScheduler.
+     */
     private static void initWikipediaSpecialExportProcessor() {
         String[] exportFiles = new File(SPECIAL_EXPORTS).list();
         if (exportFiles == null || exportFiles.length == 0) {
@@ -84,34 +200,115 @@ public class WikipediaSpecialExportModeler {
             System.err.println("FATAL ERROR: Exiting Program !");
             System.exit(1);
         } else {
+            checkShardNames(exportFiles, "initWikipediaSpecialExportProcessor");
+            IngestionScheduler scheduler = new IngestionScheduler(INGESTION_THREADS,
+                    IngestionScheduler.getHeapBudget(INGESTION_HEAP_FRACTION));
             for (String fileName : exportFiles) {
+                // the index of a multistream dump is read with the dump
+                if (MultistreamBZip2InputStream.isIndex(fileName)) continue;
                 String exportType = determineFilesType(fileName);
-                if (exportType.equals("objects") 
-                 || exportType.equals("women")
-                 || exportType.equals("men")) {
-                    String xmlFileName = REFINED_XML + exportType + ".xml";
-                    String exportInput = SPECIAL_EXPORTS + fileName;
-                    System.err.println("Processing Export File @ " + exportInput);
-                    WSEP.convertSpecialExport(exportInput, xmlFileName);
-                    System.err.println("Processing Complete -> " + xmlFileName);
-                } else {
+                if (exportType == null) {
                     System.err.print("ERR: Export File Not Processed: ");
                     System.err.println(SPECIAL_EXPORTS + fileName);
+                    continue;
                 }
+                String xmlFileName = REFINED_XML + getShardName(fileName) + ".xml";
+                String exportInput = SPECIAL_EXPORTS + fileName;
+                if (CHECKPOINT.isConverted(exportInput, xmlFileName)) {
+                    System.err.println("Verified, Not Processed Again -> " + xmlFileName);
+                    continue;
+                }
+                // the conversion streams the export, its memory does not depend
+                // on the size of the export
+                scheduler.add(exportInput, new File(exportInput).length(),
+                        STREAM_JOB_MEMORY, () -> {
+                            System.err.println("Processing Export File @ " + exportInput);
+                            if (!WSEP.streamSpecialExport(exportInput, xmlFileName)) {
+                                throw new IOException("Export Not Processed: " + exportInput);
+                            }
+                            CHECKPOINT.converted(exportInput, xmlFileName);
+                            System.err.println("Processing Complete -> " + xmlFileName);
+                        });
             }
+            WSEP = newProcessor(scheduler.size());
+            runIngestion(scheduler, "initWikipediaSpecialExportProcessor");
         }
     }
     
+    /**
+     * 
+     * @param fileName
+     * @return the class of the longest class name in the file name, or null
+     */
     private static String determineFilesType(String fileName) {
-        String objects = "objects";
-        String women = "women";
-        String men = "men";
-        if (fileName.toLowerCase().contains(objects)) return objects;
-        if (fileName.toLowerCase().contains(women)) return women;
-        if (fileName.toLowerCase().contains(men)) return men;
-        return null;
+        String name = new File(fileName).getName().toLowerCase();
+        String type = null;
+        for (String exportClass : CLASSES) {
+            if (name.contains(exportClass.toLowerCase())
+                    && (type == null || exportClass.length() > type.length())) {
+                type = exportClass;
+            }
+        }
+        return type;
     }
     
+    /**
+     * 
+     * @param fileName
+     * @return the file name without the directory and the xml and compression
+     *      extensions, which names the outputs made from the file
+     */
+    private static String getShardName(String fileName) {
+        String name = new File(fileName).getName();
+        for (String extension : new String[] {".gz", ".bz2", ".xml"}) {
+            if (name.endsWith(extension)) {
+                name = name.substring(0, name.length() - extension.length());
+            }
+        }
+        return name;
+    }
+    
+    /**
+     * The outputs of two exports with the same shard name, e.g. x.xml and
+     * x.xml.gz, would overwrite each other, which is a fatal error.
+     * 
+     * @param exportFiles
+     * @param stage the stage of the pipeline, for the error message
+     */
+    private static void checkShardNames(String[] exportFiles, String stage) {
+        Map<String, String> shards = new HashMap<>();
+        for (String fileName : exportFiles) {
+            if (MultistreamBZip2InputStream.isIndex(fileName)) continue;
+            if (determineFilesType(fileName) == null) continue;
+            String other = shards.putIfAbsent(getShardName(fileName), fileName);
+            if (other != null) {
+                System.err.println("ERR @ " + stage);
+                System.err.println("ERR: Exports With The Same Name @ "
+                        + SPECIAL_EXPORTS + other + ", " + SPECIAL_EXPORTS + fileName);
+                System.err.println("FATAL ERROR: Exiting Program !");
+                System.exit(1);
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @param jobs the number of exports processed at once
+     * @return a processor sharing the processors of the machine with the others
+     */
+    private static WikipediaSpecialExportProcessor newProcessor(int jobs) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        WikipediaSpecialExportProcessor processor = new WikipediaSpecialExportProcessor(
+                Math.max(1, cores / Math.max(1, Math.min(jobs, INGESTION_THREADS))));
+        processor.setRevisionFilter(REVISIONS);
+        return processor;
+    }
+    
+    /**
+     * Tags the first paragraphs of every processed export into the directory of
+     * the export in the tagged texts of its class, the processed exports are
+     * tagged in parallel by the IngestionScheduler, all of them share the taggers.
+     */
     private static void parseAndTagProcessedExportTexts() {
         String[] processedExports = new File(REFINED_XML).list();
         if (processedExports == null || processedExports.length == 0) {
@@ -121,79 +318,431 @@ public class WikipediaSpecialExportModeler {
             System.err.println("FATAL ERROR: Exiting Program !");
             System.exit(2);
         } else {
-            for (String processed : processedExports) {
-                processed = REFINED_XML + processed; // prepend file path
-                System.err.println("Parsing and Tagging @ " + processed);
-                ArrayList<String> texts 
-                        = WSEP.getTextsFromProcessedExport(processed,
-                                NUMBER_OF_PARAGRAPHS_FOR_TRAINING);
-                String processedType = determineFilesType(processed);
-                switch (processedType) {
-                    case "objects": { 
-                        tagAndSaveTexts(texts, TAGGED_OBJECTS);
-                        break;
-                    }
-                    case "women" : {
-                        tagAndSaveTexts(texts, TAGGED_WOMEN);
-                        break;
-                    }
-                    case "men": {
-                        tagAndSaveTexts(texts, TAGGED_MEN);
-                        break;
+            IngestionScheduler scheduler = new IngestionScheduler(INGESTION_THREADS,
+                    IngestionScheduler.getHeapBudget(INGESTION_HEAP_FRACTION));
+            for (String fileName : processedExports) {
+                String processed = REFINED_XML + fileName; // prepend file path
+                String processedType = determineFilesType(fileName);
+                if (processedType == null) {
+                    System.err.print("ERR: XML File Not Parsed: ");
+                    System.err.println(processed);
+                    continue;
+                }
+                String dir = TAGGED_TEXT + processedType + "/" + getShardName(fileName) + "/";
+                // the texts of the export are held until they are tagged, as
+                // chars of two bytes they take at most twice the file
+                long length = new File(processed).length();
+                scheduler.add(processed, length, 2 * length, () -> {
+                    System.err.println("Parsing and Tagging @ " + processed);
+                    ArrayList<String> texts
+                            = WSEP.getTextsFromProcessedExport(processed,
+                                    NUMBER_OF_PARAGRAPHS_FOR_TRAINING);
+                    if (texts == null) throw new IOException("XML File Not Parsed: " + processed);
+                    new File(dir).mkdirs();
+                    tagAndSaveTexts(processed, texts, dir);
+                });
+            }
+            runIngestion(scheduler, "parseAndTagProcessedExportTexts");
+        }
+    }
+    
+    /**
+     * Tags the texts of the processed export into the store of the directory,
+     * every few batches the store is sealed and the progress checkpointed, so
+     * a resumed run goes on from the last checkpoint and drops the segments
+     * written after it.
+     */
+    private static void tagAndSaveTexts(String processed, ArrayList<String> texts,
+            String dir) throws IOException {
+        int done = CHECKPOINT.getTaggedTexts(processed);
+        if (done > texts.size()) done = 0;
+        try (TaggedTextStore store = new TaggedTextStore(dir)) {
+            if (done > 0 && !store.isIntact(CHECKPOINT.getTaggedSegments(processed))) {
+                // a segment of the checkpoint is torn or gone
+                System.err.println("Segments Not Intact, Tagging Again @ " + processed);
+                done = 0;
+            }
+            if (done == 0) {
+                // all of the texts are tagged again, so the old segments are replaced
+                store.clear();
+            } else {
+                store.retain(CHECKPOINT.getTaggedSegments(processed));
+                System.err.println("Resuming Tagging @ Text " + done + " Of " + texts.size());
+            }
+            int batches = 0, failed = 0;
+            for (int from = done; from < texts.size(); from += TAGGING_BATCH_SIZE) {
+                int to = Math.min(from + TAGGING_BATCH_SIZE, texts.size());
+                List<String> tagged = SSTC.tagNormalizedStrings(texts.subList(from, to));
+                for (String taggedText : tagged) {
+                    if (taggedText == null) {
+                        failed++;
+                    } else {
+                        store.append(taggedText);
                     }
-                    default: {
-                        System.err.print("ERR: XML File Not Parsed: ");
-                        System.err.println(processed);
+                }
+                if (++batches % CHECKPOINT_BATCHES == 0 || to == texts.size()) {
+                    store.seal();
+                    CHECKPOINT.tagged(processed, to, store.getSegmentFileNames().size());
+                }
+            }
+            if (failed > 0) {
+                System.err.println("ERR @ tagAndSaveTexts: " + failed
+                        + " Texts Not Tagged @ " + processed);
+            }
+        }
+    }
+    
+    /**
+     * Runs the jobs of the scheduler, when any of them failed the program is
+     * stopped, so no model is trained or saved from part of the exports.
+     * 
+     * @param scheduler
+     * @param stage the stage of the pipeline, for the error message
+     */
+    private static void runIngestion(IngestionScheduler scheduler, String stage) {
+        if (!scheduler.run()) {
+            // an export was not processed, this is a fatal error
+            System.err.println("ERR @ " + stage);
+            System.err.println("ERR: Not Every Export Was Processed, See Above");
+            System.err.println("FATAL ERROR: Exiting Program !");
+            System.exit(4);
+        }
+    }
+    
+    /**
+     * The streaming mode - every export is run through the page extraction, the
+     * tagger and into the model of its class in memory, the refined xml and the
+     * tagged text segments are only written with -intermediates. The exports are
+     * streamed in parallel by the IngestionScheduler, every export into a model
+     * of its own, which is merged into the model of its class when it is done.
+     */
+    private static void streamExportsIntoModels() {
+        String[] exportFiles = new File(SPECIAL_EXPORTS).list();
+        if (exportFiles == null || exportFiles.length == 0) {
+            // the directory is empty of does not exist, this is a fatal error
+            System.err.println("ERR @ streamExportsIntoModels");
+            System.err.println("ERR: Directory Empty @ " + SPECIAL_EXPORTS);
+            System.err.println("FATAL ERROR: Exiting Program !");
+            System.exit(1);
+        }
+        checkShardNames(exportFiles, "streamExportsIntoModels");
+        Map<String, TermCountProbabilityModel> models = new LinkedHashMap<>();
+        IngestionScheduler scheduler = new IngestionScheduler(INGESTION_THREADS,
+                IngestionScheduler.getHeapBudget(INGESTION_HEAP_FRACTION));
+        for (String fileName : exportFiles) {
+            if (MultistreamBZip2InputStream.isIndex(fileName)) continue;
+            String exportType = determineFilesType(fileName);
+            if (exportType == null) {
+                System.err.print("ERR: Export File Not Processed: ");
+                System.err.println(SPECIAL_EXPORTS + fileName);
+                continue;
+            }
+            models.computeIfAbsent(exportType, type -> newModel());
+            String exportInput = SPECIAL_EXPORTS + fileName;
+            String shard = getShardName(fileName);
+            scheduler.add(exportInput, new File(exportInput).length(),
+                    STREAM_JOB_MEMORY + approximate, () -> {
+                        System.err.println("Streaming Export File @ " + exportInput);
+                        String dir = TAGGED_TEXT + exportType + "/" + shard + "/";
+                        if (intermediates) new File(dir).mkdirs();
+                        TermCountProbabilityModel tcpm = newModel();
+                        int texts;
+                        try (TaggedTextStore store = intermediates
+                                ? new TaggedTextStore(dir) : null) {
+                            if (store != null) store.clear();
+                            texts = streamExportIntoModel(exportInput, shard, tcpm, store);
+                        }
+                        TermCountProbabilityModel model = models.get(exportType);
+                        synchronized (model) {
+                            model.merge(tcpm);
+                        }
+                        System.err.println("Streamed " + texts + " Texts Into The "
+                                + exportType + " Model");
+                    });
+        }
+        WSEP = newProcessor(scheduler.size());
+        runIngestion(scheduler, "streamExportsIntoModels");
+        Map<String, TermCountProbabilityModel> named = new LinkedHashMap<>();
+        models.forEach((type, tcpm) -> named.put(MODEL_FILES + type + ".mdl", tcpm));
+        saveModels(named);
+    }
+    
+    /**
+     * Computes the probabilities of the models over the vocabulary of all of
+     * them and saves the models, their manifests and the features they have.
+     * 
+     * @param models the models by model file name
+     */
+    private static void saveModels(Map<String, TermCountProbabilityModel> models) {
+        int vocab = TermCountProbabilityModel.getVocabularySize(models.values());
+        System.err.println("Vocabulary Of " + vocab + " Features: " + FEATURES);
+        for (Map.Entry<String, TermCountProbabilityModel> entry : models.entrySet()) {
+            String modelName = entry.getKey();
+            TermCountProbabilityModel tcpm = entry.getValue();
+            tcpm.computeTheTermProbabilites(vocab);
+            if (tcpm.isApproximate()) {
+                System.err.println("Approximate Counts Of " + modelName + " Within +"
+                        + tcpm.getErrorBound() + ", " + tcpm.getModelSize() + " Terms");
+            }
+            System.out.println(tcpm.toString());
+            tcpm.serializeTermCountProbabilityModel(modelName);
+            TrainingManifest manifest = MANIFESTS.remove(modelName);
+            if (manifest != null) {
+                manifest.save();
+            } else {
+                // the model was not trained from the tagged text segments of a manifest
+                new File(modelName + MANIFEST_EXTENSION).delete();
+            }
+        }
+        try {
+            FEATURES.write(FEATURES_FILE);
+            List<String> classes = new ArrayList<>();
+            for (String modelName : models.keySet()) {
+                String name = new File(modelName).getName();
+                classes.add(name.substring(0, name.length() - ".mdl".length()));
+            }
+            Files.write(Paths.get(CLASSES_FILE), classes, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            System.err.println("IOException: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 
+     * @return the features of the saved models
+     */
+    private static FeatureExtractor readTrainedFeatures() {
+        try {
+            return FeatureExtractor.read(FEATURES_FILE);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("ERR @ readTrainedFeatures: " + ex.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * Runs the export through the two stages of the pipeline, an extractor thread
+     * collects the paragraphs of the pages into batches, while the calling thread
+     * tags the batches and counts their terms into the model. The bounded queue
+     * between them keeps the extractor at most a few batches ahead.
+     * 
+     * @param store receives the tagged texts as well, or null
+     * @return the number of texts tagged into the model, without the texts that
+     *      failed to be tagged
+     * @throws IOException when the export could not be streamed to the end, the
+     *      model then only has the texts before the failure
+     */
+    private static int streamExportIntoModel(String export, String shard,
+            TermCountProbabilityModel tcpm, TaggedTextStore store) throws IOException {
+        BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(STREAMING_BATCHES);
+        List<String> end = new ArrayList<>();
+        String xml = intermediates ? REFINED_XML + shard + ".xml" : null;
+        String gauge = "streaming_batches_" + shard;
+        PipelineMetrics.addGauge(gauge, batches::size);
+        AtomicBoolean complete = new AtomicBoolean();
+        
+        Thread extractor = new Thread(() -> {
+            List<String> batch = new ArrayList<>(TAGGING_BATCH_SIZE);
+            try {
+                boolean streamed = WSEP.streamSpecialExport(export, xml,
+                        NUMBER_OF_PARAGRAPHS_FOR_TRAINING,
+                        text -> {
+                            batch.add(text);
+                            if (batch.size() == TAGGING_BATCH_SIZE) {
+                                putBatch(batches, new ArrayList<>(batch));
+                                batch.clear();
+                            }
+                        });
+                if (!batch.isEmpty()) putBatch(batches, batch);
+                complete.set(streamed);
+            } catch (CancellationException ex) {
+                return; // the tagging stage has given up, nobody is waiting
+            } catch (RuntimeException ex) {
+                System.err.println("ERR @ streamExportIntoModel: " + ex.getMessage());
+            }
+            try {
+                batches.put(end);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "special-export-extractor");
+        
+        extractor.start();
+        int count = 0, failed = 0;
+        try {
+            for (List<String> texts = batches.take(); texts != end; texts = batches.take()) {
+                List<String> tagged = SSTC.tagNormalizedStrings(texts);
+                for (String taggedText : tagged) {
+                    if (taggedText == null) {
+                        failed++;
+                        continue;
                     }
+                    PipelineMetrics.count(PipelineMetrics.Counter.TERMS_PUSHED,
+                            FEATURES.extract(taggedText, tcpm::pushTerm));
+                    if (store != null) store.append(taggedText);
+                    count++;
                 }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted @ " + export);
+        } finally {
+            PipelineMetrics.removeGauge(gauge);
+            extractor.interrupt();
+        }
+        // the end of the batches is only queued after the extractor is done
+        if (!complete.get()) throw new IOException("Export Not Streamed To The End @ " + export);
+        if (failed > 0) {
+            System.err.println("ERR @ streamExportIntoModel: " + failed
+                    + " Texts Not Tagged @ " + export);
         }
+        return count;
     }
     
-    private static void tagAndSaveTexts(ArrayList<String> texts, String dir) {
-        for (int i = 0; i < texts.size(); i++) {
-            String fileName = Integer.toString(i); // all filenames same length
-            while (fileName.length() < 7) fileName = '0' + fileName;
-            fileName = dir + fileName;
-            SSTC.tagTextAndWriteFile(texts.get(i), fileName);
+    private static void putBatch(BlockingQueue<List<String>> batches, List<String> batch) {
+        try {
+            batches.put(batch);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
         }
     }
     
-    private static void trainModelsFromTaggedText(String dir, String modelName) {
-        String[] tagged_text_files = new File(dir).list();
-        if (tagged_text_files == null || tagged_text_files.length == 0) {
+    /**
+     * 
+     * @param dir
+     * @param modelName
+     * @return the trained model, the probabilities are computed by saveModels
+     */
+    private static TermCountProbabilityModel trainModelsFromTaggedText(String dir,
+            String modelName) {
+        List<String> segments = getTaggedSegments(dir);
+        if (segments.isEmpty()) {
             // the directory is empty of does not exist, this is a fatal error
             System.err.println("ERR @ trainModelsFromTaggedText");
             System.err.println("ERR: Directory Empty @ " + dir);
             System.err.println("FATAL ERROR: Exiting Program !");
             System.exit(3);
+            return null;
         } else {
-            TermCountProbabilityModel tcpm = new TermCountProbabilityModel();
-            // iterate through all of the files in the directory
-            for(String text_file_name : tagged_text_files) {
+            TrainingManifest manifest = new TrainingManifest(modelName + MANIFEST_EXTENSION);
+            TermCountProbabilityModel tcpm = null;
+            if (incremental && canUpdateModel(dir, modelName, manifest)) {
                 try {
-                    text_file_name = dir + text_file_name;
-                    FileReader fr = new FileReader(text_file_name);
-                    StringBuilder sb = new StringBuilder();
-                    // read in all characters from the current file
-                    while (fr.ready()) sb.append((char)fr.read());
-                    String[] tokens = sb.toString().split(" ");
-                    // add all proper and possessive pronouns to the model
-                    for (String token : tokens) {
-                        if (token.endsWith("_PRP$") || token.endsWith("_PRP")) {
-                            tcpm.pushTerm(token);
-                        }
-                    }
-                } catch (FileNotFoundException ex) {
-                    System.err.println("FileNotFoundException: " + ex.getMessage());
+                    tcpm = new TermCountProbabilityModel(modelName);
                 } catch (IOException ex) {
+                    // the segments of the manifest are trained again
                     System.err.println("IOException: " + ex.getMessage());
+                    System.err.println("Retraining The Model @ " + modelName);
                 }
             }
-            // compute the probabilities of the model and save the model
-            tcpm.computeTheTermProbabilites(10);
-            System.out.println(tcpm.toString());
-            tcpm.serializeTermCountProbabilityModel(modelName);
+            if (tcpm == null) {
+                tcpm = newModel();
+                manifest.clear();
+            }
+            // split the segments not yet trained over the cores, every split fills
+            // a partial model of its own, then the partial models are merged, the
+            // sketches of approximate models are too large to have one per split
+            List<String> pending = new ArrayList<>();
+            for (String segment : segments) {
+                if (!manifest.contains(segment)) pending.add(segment);
+            }
+            Stream<String> split = approximate > 0 ? pending.stream() : pending.parallelStream();
+            TermCountProbabilityModel partial;
+            try {
+                partial = split.collect(
+                        WikipediaSpecialExportModeler::newModel,
+                        (model, segment) -> {
+                            try {
+                                pushTaggedTextSegment(model, dir + segment);
+                            } catch (IOException ex) {
+                                throw new UncheckedIOException(ex);
+                            }
+                            // only a segment that was read to the end is trained
+                            manifest.record(segment, new File(dir + segment));
+                        },
+                        TermCountProbabilityModel::merge);
+            } catch (UncheckedIOException ex) {
+                // the counts of part of a segment are in the model, so neither
+                // the model nor its manifest can be saved, this is a fatal error
+                System.err.println("ERR @ trainModelsFromTaggedText");
+                System.err.println("IOException: " + ex.getCause().getMessage());
+                System.err.println("FATAL ERROR: Exiting Program !");
+                System.exit(5);
+                return null;
+            }
+            tcpm.merge(partial);
+            System.err.println("Trained " + pending.size() + " Segments Into " + modelName);
+            // the manifest is saved with the model
+            MANIFESTS.put(modelName, manifest);
+            return tcpm;
+        }
+    }
+    
+    /**
+     * 
+     * @param dir the tagged texts of a class
+     * @return the segments of the tagged texts of every export of the class, by
+     *      their names in the directory of the class
+     */
+    private static List<String> getTaggedSegments(String dir) {
+        List<String> segments = new ArrayList<>();
+        File[] shards = new File(dir).listFiles(File::isDirectory);
+        if (shards == null) return segments;
+        Arrays.sort(shards);
+        for (File shard : shards) {
+            for (String segment : new TaggedTextStore(shard.getPath()).getSegmentFileNames()) {
+                segments.add(shard.getName() + "/" + segment);
+            }
+        }
+        return segments;
+    }
+    
+    /**
+     * 
+     * @return a new empty model, approximate when -approximate is set
+     */
+    private static TermCountProbabilityModel newModel() {
+        return approximate > 0
+                ? new TermCountProbabilityModel(approximate)
+                : new TermCountProbabilityModel();
+    }
+    
+    /**
+     * An existing model can only be updated when every segment it was trained on
+     * is still present and unchanged, because the counts of a changed or removed
+     * segment can not be taken back out of the model.
+     */
+    private static boolean canUpdateModel(String dir, String modelName,
+            TrainingManifest manifest) {
+        if (!new File(modelName).isFile()) return false;
+        for (String trained : manifest.getFileNames()) {
+            if (!manifest.isUnchanged(trained, new File(dir + trained))) {
+                System.err.println("Changed Since Training, Retraining: " + dir + trained);
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 
+     * @param tcpm the model the features of the segment are pushed into
+     * @param segment_name
+     * @throws IOException when the segment can not be read to the end, part of
+     *      its features may be in the model already
+     */
+    private static void pushTaggedTextSegment(TermCountProbabilityModel tcpm,
+            String segment_name) throws IOException {
+        long start = PipelineMetrics.start();
+        try (TaggedTextSegment segment = new TaggedTextSegment(segment_name, true)) {
+            // add the features of every tagged text to the model
+            segment.forEach(tagged -> PipelineMetrics.count(
+                    PipelineMetrics.Counter.TERMS_PUSHED,
+                    FEATURES.extract(tagged, tcpm::pushTerm)));
+            PipelineMetrics.count(PipelineMetrics.Counter.BYTES_READ,
+                    new File(segment_name).length());
+            PipelineMetrics.stop(PipelineMetrics.Timer.SEGMENT_TRAINING, start);
         }
     }
 }